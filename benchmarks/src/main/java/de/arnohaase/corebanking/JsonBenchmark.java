@@ -0,0 +1,35 @@
+package de.arnohaase.corebanking;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import de.arnohaase.corebanking.accounts.ImmutableGetResponse;
+import de.arnohaase.corebanking.accounts.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Marshalling HTTP responses to JSON with {@link HttpServer}'s ObjectMapper, which is what Jackson.marshaller does
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    private final Object getResponse = ImmutableGetResponse.of(Money.parse("1234.56"), 4711, UUID.randomUUID());
+
+    @Benchmark public String getResponse () throws JsonProcessingException {
+        return HttpServer.om.writeValueAsString(getResponse);
+    }
+}
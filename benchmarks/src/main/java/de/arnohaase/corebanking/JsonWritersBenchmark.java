@@ -0,0 +1,94 @@
+package de.arnohaase.corebanking;
+
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import de.arnohaase.corebanking.accounts.*;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * JSON for HTTP responses with {@link JsonWriters}, compared to the ObjectMapper: as a response entity, the way
+ *  Jackson.marshaller(om) creates it from the JSON string, and as a line of newline delimited JSON for the journal
+ *  and bulk routes. 'Recent' is the list of an account's recent journal entries, with events of mixed types.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class JsonWritersBenchmark {
+    private static final ByteString NEWLINE = ByteString.fromString("\n");
+
+    @Param({"OK", "CreateAccount", "GetResponse", "JournalEntry", "Recent", "BulkLineResult"})
+    public String responseType;
+
+    private final JsonWriters json = new JsonWriters(HttpServer.om);
+    private Object response;
+
+    @Setup public void setUp () {
+        response = response(responseType);
+    }
+
+    @Benchmark public Object jackson () throws JsonProcessingException {
+        return HttpEntities.create(ContentTypes.APPLICATION_JSON, HttpServer.om.writeValueAsString(response));
+    }
+
+    @Benchmark public Object precomputed () {
+        return HttpEntities.create(ContentTypes.APPLICATION_JSON, json.write(response));
+    }
+
+    @Benchmark public Object jacksonLine () throws JsonProcessingException {
+        return ByteString.fromArray(HttpServer.om.writeValueAsBytes(response)).concat(NEWLINE);
+    }
+
+    @Benchmark public Object precomputedLine () {
+        return json.writeLine(response);
+    }
+
+    private static Object response (String responseType) {
+        final var account = UUID.randomUUID();
+        final var amount = Money.parse("123.45");
+        final var now = Instant.now();
+
+        switch (responseType) {
+            case "OK": return new AccountMessages.OK();
+            case "CreateAccount": return ImmutableCreateAccount.of(account);
+            case "GetResponse": return ImmutableGetResponse.of(amount, 4711, account);
+            case "JournalEntry": return ImmutableJournalEntry.of(4711, ImmutableDeposit.of(amount, now, account));
+            case "Recent": {
+                final var entries = new ArrayList<AccountMessages.JournalEntry>();
+                for (int i=0; i<20; i++) {
+                    switch (i % 5) {
+                        case 0: entries.add(ImmutableJournalEntry.of(i, ImmutableDeposit.of(amount, now, account))); break;
+                        case 1: entries.add(ImmutableJournalEntry.of(i, ImmutableWithdraw.of(amount, now, account))); break;
+                        case 2: entries.add(ImmutableJournalEntry.of(i, ImmutableTransferCommand.of(UUID.randomUUID(), false, amount, UUID.randomUUID(), now, account))); break;
+                        case 3: entries.add(ImmutableJournalEntry.of(i, ImmutableReceivedTransfer.of(i, UUID.randomUUID(), amount, UUID.randomUUID(), now, account))); break;
+                        default: entries.add(ImmutableJournalEntry.of(i, ImmutableTransferAckForSender.of(i, UUID.randomUUID(), amount, true, now, account)));
+                    }
+                }
+                return Collections.unmodifiableList(entries);
+            }
+            case "BulkLineResult": return ImmutableBulkLineResult.of(17, false, "amount greater than balance");
+            default: throw new IllegalArgumentException(responseType);
+        }
+    }
+}
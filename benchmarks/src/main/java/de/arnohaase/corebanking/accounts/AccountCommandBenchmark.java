@@ -0,0 +1,84 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorRef;
+import de.arnohaase.corebanking.benchmarks.BenchmarkNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static de.arnohaase.corebanking.benchmarks.BenchmarkNode.ask;
+
+
+/**
+ * Round trip of a single command to an account through the shard region, including its persist, on a single node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class AccountCommandBenchmark {
+    private static final Money AMOUNT = Money.ofMinorUnits(1);
+
+    @Param({BenchmarkNode.INMEM_JOURNAL, BenchmarkNode.FILE_JOURNAL})
+    public String journal;
+
+    @Param({"sync", "async"})
+    public String persistMode;
+
+    private BenchmarkNode node;
+    private ActorRef accounts;
+    private UUID account;
+    private UUID target;
+
+    @Setup public void setUp () {
+        node = new BenchmarkNode(journal, "core-banking.accounts.persist-mode = " + persistMode);
+        accounts = node.startAccounts();
+
+        account = UUID.randomUUID();
+        target = UUID.randomUUID();
+        ask(accounts, ImmutableCreateAccount.of(account));
+        ask(accounts, ImmutableCreateAccount.of(target));
+        ask(accounts, ImmutableDeposit.of(Money.ofMinorUnits(1_000_000_000_000L), Instant.now(), account));
+    }
+
+    @TearDown public void tearDown () throws Exception {
+        node.shutdown();
+    }
+
+    @Benchmark public Object deposit () {
+        return ask(accounts, ImmutableDeposit.of(AMOUNT, Instant.now(), account));
+    }
+
+    @Benchmark public Object withdraw () {
+        return ask(accounts, ImmutableWithdraw.of(AMOUNT, Instant.now(), account));
+    }
+
+    /**
+     * until the source account has written the transfer; crediting the target happens asynchronously
+     */
+    @Benchmark public Object transfer () {
+        return ask(accounts, ImmutableTransferCommand.of(UUID.randomUUID(), false, AMOUNT, target, Instant.now(), account));
+    }
+
+    /**
+     * as {@link #transfer()}, but registered with the transfer watchdog first
+     */
+    @Benchmark public Object watchedTransfer () {
+        return ask(accounts, ImmutableTransferCommand.of(UUID.randomUUID(), true, AMOUNT, target, Instant.now(), account));
+    }
+}
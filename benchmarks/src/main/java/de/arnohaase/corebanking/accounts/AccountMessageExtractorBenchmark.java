@@ -0,0 +1,60 @@
+package de.arnohaase.corebanking.accounts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The work the shard region does per message to route it: shard id and entity id
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AccountMessageExtractorBenchmark {
+    @Param({"false", "true"})
+    public boolean striped;
+
+    private AccountMessageExtractor extractor;
+    private AccountMessages.Deposit deposit;
+    private AccountMessages.Get get;
+
+    @Setup public void setUp () {
+        final var account = UUID.randomUUID();
+        extractor = new AccountMessageExtractor(1000, striped ? Map.of(account, 8) : Map.of());
+        deposit = ImmutableDeposit.of(Money.parse("1.00"), Instant.now(), account);
+        get = ImmutableGet.of(account);
+    }
+
+    @Benchmark public String depositShardId () {
+        return extractor.shardId(deposit);
+    }
+
+    @Benchmark public String depositEntityId () {
+        return extractor.entityId(deposit);
+    }
+
+    @Benchmark public String getShardId () {
+        return extractor.shardId(get);
+    }
+
+    @Benchmark public String getEntityId () {
+        return extractor.entityId(get);
+    }
+}
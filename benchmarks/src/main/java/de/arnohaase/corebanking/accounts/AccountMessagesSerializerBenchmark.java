@@ -0,0 +1,144 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorPaths;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.persistence.AtLeastOnceDelivery;
+import akka.serialization.JavaSerializer;
+import akka.serialization.Serializer;
+import akka.serialization.SerializerWithStringManifest;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.collection.JavaConverters;
+
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Serialization of every message type with {@link AccountMessagesSerializer}, as done for remoting and persistence,
+ *  compared to the JavaSerializer that was used before. The size of each message's serialized form is printed at
+ *  setup. New and OK are not Serializable, so the JavaSerializer fails for them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AccountMessagesSerializerBenchmark {
+    @Param({"New", "OK", "CreateAccount", "Deposit", "Withdraw", "Get", "GetStripe", "GetResponse", "TransferCommand",
+            "ReceivedTransfer", "TransferAckForSender", "TransferPing", "TransferPingCancellation", "BulkCommand",
+            "BulkResponse", "Posting", "PostingResponse", "AccountSnapshot", "WatchDogSnapshot"})
+    public String messageType;
+
+    @Param({"binary", "java"})
+    public String serializer;
+
+    private ActorSystem system;
+    private Serializer impl;
+    private Object message;
+    private String manifest;
+    private byte[] bytes;
+
+    @Setup public void setUp () {
+        system = ActorSystem.create("serialization", ConfigFactory.parseString("akka.actor.provider = local").withFallback(ConfigFactory.load()));
+        impl = serializer.equals("java") ? new JavaSerializer((ExtendedActorSystem) system) : new AccountMessagesSerializer((ExtendedActorSystem) system);
+
+        message = message(messageType);
+        if (impl instanceof JavaSerializer && ! (message instanceof Serializable))
+            throw new IllegalStateException(messageType + " is not Serializable");
+        manifest = impl instanceof SerializerWithStringManifest ? ((SerializerWithStringManifest) impl).manifest(message) : "";
+        bytes = impl.toBinary(message);
+        System.out.println();
+        System.out.println(messageType + " with " + serializer + ": " + bytes.length + " bytes");
+    }
+
+    @TearDown public void tearDown () {
+        system.terminate();
+    }
+
+    @Benchmark public byte[] toBinary () {
+        if (impl instanceof SerializerWithStringManifest)
+            ((SerializerWithStringManifest) impl).manifest(message);
+        return impl.toBinary(message);
+    }
+
+    @Benchmark public Object fromBinary () throws NotSerializableException {
+        if (impl instanceof SerializerWithStringManifest)
+            return ((SerializerWithStringManifest) impl).fromBinary(bytes, manifest);
+        return impl.fromBinary(bytes);
+    }
+
+    private static Object message (String messageType) {
+        final var account = UUID.randomUUID();
+        final var amount = Money.parse("123.45");
+        final var now = Instant.now();
+
+        switch (messageType) {
+            case "New": return new AccountMessages.New();
+            case "OK": return new AccountMessages.OK();
+            case "CreateAccount": return ImmutableCreateAccount.of(account);
+            case "Deposit": return ImmutableDeposit.of(amount, now, account);
+            case "Withdraw": return ImmutableWithdraw.of(amount, now, account);
+            case "Get": return ImmutableGet.of(account);
+            case "GetStripe": return ImmutableGetStripe.of(3, account);
+            case "GetResponse": return ImmutableGetResponse.of(amount, 4711, account);
+            case "TransferCommand": return ImmutableTransferCommand.of(UUID.randomUUID(), true, amount, UUID.randomUUID(), now, account);
+            case "ReceivedTransfer": return ImmutableReceivedTransfer.of(17, UUID.randomUUID(), amount, UUID.randomUUID(), now, account);
+            case "TransferAckForSender": return ImmutableTransferAckForSender.of(17, UUID.randomUUID(), amount, true, now, account);
+            case "TransferPing": return ImmutableTransferPing.of(UUID.randomUUID(), account);
+            case "TransferPingCancellation": return ImmutableTransferPingCancellation.of(UUID.randomUUID());
+            case "BulkCommand": {
+                final var commands = new ArrayList<AccountMessages.WithEntityId>();
+                for (int i=0; i<50; i++) commands.add(ImmutableDeposit.of(amount, now, account));
+                for (int i=0; i<50; i++) commands.add(ImmutableWithdraw.of(amount, now, account));
+                return ImmutableBulkCommand.of(commands, account);
+            }
+            case "BulkResponse": {
+                final var results = new ArrayList<AccountMessages.BulkItemResult>();
+                for (int i=0; i<100; i++) results.add(ImmutableBulkItemResult.of(i % 10 != 0, i % 10 != 0 ? "" : "insufficient funds"));
+                return ImmutableBulkResponse.of(results, account);
+            }
+            case "Posting": return ImmutablePosting.of(UUID.randomUUID(), Money.parse("0.34"), Money.parse("0.05"), now, account);
+            case "PostingResponse": return ImmutablePostingResponse.of(false, Money.parse("0.05"), account);
+            case "AccountSnapshot": {
+                final var deliveries = new ArrayList<AtLeastOnceDelivery.UnconfirmedDelivery>();
+                for (int i=0; i<10; i++)
+                    deliveries.add(new AtLeastOnceDelivery.UnconfirmedDelivery(i, ActorPaths.fromString("akka://core-banking/system/sharding/accounts"),
+                            ImmutableReceivedTransfer.of(i, UUID.randomUUID(), amount, account, now, UUID.randomUUID())));
+                return ImmutableAccountSnapshot.of(true, amount, uuids(1000), uuids(1000), uuids(31),
+                        new AtLeastOnceDelivery.AtLeastOnceDeliverySnapshot(10, JavaConverters.asScalaBuffer(deliveries).toList()));
+            }
+            case "WatchDogSnapshot": {
+                final var pings = new ArrayList<AccountMessages.TransferPing>();
+                for (int i=0; i<1000; i++) pings.add(ImmutableTransferPing.of(UUID.randomUUID(), UUID.randomUUID()));
+                return ImmutableWatchDogSnapshot.of(pings);
+            }
+            default: throw new IllegalArgumentException(messageType);
+        }
+    }
+
+    private static List<UUID> uuids (int n) {
+        final var result = new ArrayList<UUID>(n);
+        for (int i=0; i<n; i++) result.add(UUID.randomUUID());
+        return Collections.unmodifiableList(result);
+    }
+}
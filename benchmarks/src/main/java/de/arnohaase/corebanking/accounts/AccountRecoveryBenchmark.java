@@ -0,0 +1,108 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.pattern.PatternsCS;
+import de.arnohaase.corebanking.benchmarks.BenchmarkNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static de.arnohaase.corebanking.benchmarks.BenchmarkNode.ask;
+
+
+/**
+ * Time from starting an account's entity until it answers a Get, i.e. replaying its events. Without snapshots all
+ *  events are replayed; with snapshots, the latest snapshot is loaded and at most 'snapshot-every' events after it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AccountRecoveryBenchmark {
+    private static final int BULK_SIZE = 1000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int numEvents;
+
+    @Param({BenchmarkNode.INMEM_JOURNAL, BenchmarkNode.FILE_JOURNAL})
+    public String journal;
+
+    @Param({"off", "on"})
+    public String snapshots;
+
+    private BenchmarkNode node;
+    private UUID account;
+    private int numRuns = 0;
+    private ActorRef entity;
+
+    /**
+     * An account's entity is not started through the shard region, so it can be stopped and started again right away.
+     *  Its actor name must be the account id though, so a new parent is used for every run.
+     */
+    private static class Parent extends AbstractActor {
+        private final ActorRef child;
+
+        Parent (UUID account) {
+            child = context().actorOf(AccountEntity.props(context().system().deadLetters()), account.toString());
+        }
+
+        @Override public Receive createReceive () {
+            return receiveBuilder()
+                    .matchAny(msg -> child.forward(msg, context()))
+                    .build();
+        }
+    }
+
+    @Setup public void setUp () {
+        node = new BenchmarkNode(journal, snapshots.equals("on") ? "" : "core-banking.accounts.snapshot-every = 2147483647");
+        node.startAccounts();
+
+        account = UUID.randomUUID();
+        startEntity();
+        ask(entity, ImmutableCreateAccount.of(account));
+        for (int i=1; i<numEvents; i+=BULK_SIZE) {
+            final var deposits = new ArrayList<AccountMessages.WithEntityId>();
+            for (int j=i; j<Math.min(numEvents, i + BULK_SIZE); j++)
+                deposits.add(ImmutableDeposit.of(Money.ofMinorUnits(1), Instant.now(), account));
+            ask(entity, ImmutableBulkCommand.of(deposits, account));
+        }
+        stopEntity();
+    }
+
+    @TearDown public void tearDown () throws Exception {
+        node.shutdown();
+    }
+
+    @Benchmark public Object recover () {
+        startEntity();
+        return ask(entity, ImmutableGet.of(account));
+    }
+
+    @TearDown(Level.Invocation) public void stopEntity () {
+        PatternsCS.gracefulStop(entity, FiniteDuration.apply(60, TimeUnit.SECONDS)).toCompletableFuture().join();
+    }
+
+    private void startEntity () {
+        entity = node.system.actorOf(Props.create(Parent.class, () -> new Parent(account)), "parent-" + numRuns++);
+    }
+}
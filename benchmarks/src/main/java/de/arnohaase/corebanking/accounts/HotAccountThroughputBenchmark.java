@@ -0,0 +1,103 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorRef;
+import akka.actor.Status;
+import akka.pattern.PatternsCS;
+import de.arnohaase.corebanking.benchmarks.BenchmarkNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static de.arnohaase.corebanking.benchmarks.BenchmarkNode.ask;
+
+
+/**
+ * Commands per second to a single account with 'inFlight' commands outstanding at a time: each invocation sends that
+ *  many asks and waits for all of them. With 'sync' persist mode the account writes one event at a time, with 'async'
+ *  it pipelines the writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class HotAccountThroughputBenchmark {
+    private static final Money AMOUNT = Money.ofMinorUnits(1);
+    // the operations per invocation must be a constant, so the benchmark methods are per number in flight
+    private static final int IN_FLIGHT_FEW = 8;
+    private static final int IN_FLIGHT_MANY = 64;
+
+    @Param({BenchmarkNode.INMEM_JOURNAL, BenchmarkNode.FILE_JOURNAL})
+    public String journal;
+
+    @Param({"sync", "async"})
+    public String persistMode;
+
+    private BenchmarkNode node;
+    private ActorRef accounts;
+    private UUID account;
+
+    @Setup public void setUp () {
+        node = new BenchmarkNode(journal, "core-banking.accounts.persist-mode = " + persistMode);
+        accounts = node.startAccounts();
+
+        account = UUID.randomUUID();
+        ask(accounts, ImmutableCreateAccount.of(account));
+        ask(accounts, ImmutableDeposit.of(Money.ofMinorUnits(1_000_000_000_000L), Instant.now(), account));
+    }
+
+    @TearDown public void tearDown () throws Exception {
+        node.shutdown();
+    }
+
+    private void sendAndAwait (int inFlight, Supplier<Object> command) {
+        final var replies = new CompletableFuture<?>[inFlight];
+        for (int i=0; i<inFlight; i++)
+            replies[i] = PatternsCS.ask(accounts, command.get(), 10_000).toCompletableFuture();
+        CompletableFuture.allOf(replies).join();
+        for (CompletableFuture<?> reply: replies) {
+            if (reply.join() instanceof Status.Failure)
+                throw new IllegalStateException(((Status.Failure) reply.join()).cause());
+        }
+    }
+
+    @Benchmark @OperationsPerInvocation(1)
+    public void deposit1 () {
+        sendAndAwait(1, () -> ImmutableDeposit.of(AMOUNT, Instant.now(), account));
+    }
+
+    @Benchmark @OperationsPerInvocation(IN_FLIGHT_FEW)
+    public void deposit8 () {
+        sendAndAwait(IN_FLIGHT_FEW, () -> ImmutableDeposit.of(AMOUNT, Instant.now(), account));
+    }
+
+    @Benchmark @OperationsPerInvocation(IN_FLIGHT_MANY)
+    public void deposit64 () {
+        sendAndAwait(IN_FLIGHT_MANY, () -> ImmutableDeposit.of(AMOUNT, Instant.now(), account));
+    }
+
+    /**
+     * in 'async' mode, each withdrawal reserves its amount until it is written
+     */
+    @Benchmark @OperationsPerInvocation(IN_FLIGHT_MANY)
+    public void withdraw64 () {
+        sendAndAwait(IN_FLIGHT_MANY, () -> ImmutableWithdraw.of(AMOUNT, Instant.now(), account));
+    }
+}
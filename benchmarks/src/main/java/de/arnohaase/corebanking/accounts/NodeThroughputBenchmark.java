@@ -0,0 +1,86 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorRef;
+import akka.actor.Status;
+import akka.pattern.PatternsCS;
+import de.arnohaase.corebanking.benchmarks.BenchmarkNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static de.arnohaase.corebanking.benchmarks.BenchmarkNode.ask;
+
+
+/**
+ * Deposits per second of a node across many accounts, by the parallelism of the accounts' dispatcher. Every client
+ *  thread keeps a deposit in flight for each of its own accounts, so the shard region is the only shared actor on the
+ *  way. The number of client threads can be changed with '-t'; the result should grow with the parallelism up to the
+ *  number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Threads(8)
+@Fork(1)
+public class NodeThroughputBenchmark {
+    private static final int ACCOUNTS_PER_THREAD = 16;
+    private static final Money AMOUNT = Money.ofMinorUnits(1);
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private BenchmarkNode node;
+    private ActorRef accounts;
+
+    @Setup public void setUp () {
+        node = new BenchmarkNode(BenchmarkNode.INMEM_JOURNAL,
+                "core-banking.dispatchers.accounts.fork-join-executor { parallelism-min = " + parallelism + ", parallelism-max = " + parallelism + " }");
+        accounts = node.startAccounts();
+    }
+
+    @TearDown public void tearDown () throws Exception {
+        node.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class ClientAccounts {
+        final UUID[] ids = new UUID[ACCOUNTS_PER_THREAD];
+
+        @Setup public void setUp (NodeThroughputBenchmark benchmark) {
+            for (int i=0; i<ids.length; i++) {
+                ids[i] = UUID.randomUUID();
+                ask(benchmark.accounts, ImmutableCreateAccount.of(ids[i]));
+            }
+        }
+    }
+
+    @Benchmark @OperationsPerInvocation(ACCOUNTS_PER_THREAD)
+    public void deposit (ClientAccounts clientAccounts) {
+        final var replies = new CompletableFuture<?>[ACCOUNTS_PER_THREAD];
+        for (int i=0; i<ACCOUNTS_PER_THREAD; i++)
+            replies[i] = PatternsCS.ask(accounts, ImmutableDeposit.of(AMOUNT, Instant.now(), clientAccounts.ids[i]), 10_000).toCompletableFuture();
+        CompletableFuture.allOf(replies).join();
+        for (CompletableFuture<?> reply: replies) {
+            if (reply.join() instanceof Status.Failure)
+                throw new IllegalStateException(((Status.Failure) reply.join()).cause());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.persistence.AbstractPersistentActor;
+import akka.persistence.AtLeastOnceDelivery;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import de.arnohaase.corebanking.benchmarks.BenchmarkNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.collection.immutable.List$;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static de.arnohaase.corebanking.benchmarks.BenchmarkNode.ask;
+
+
+/**
+ * Round trip of a redelivered transfer to an account that has received {@code historySize} transfers before: the
+ *  account finds the transfer id in its history and acknowledges it again without writing anything. The history is
+ *  seeded as a snapshot, and the retention is the history's size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class ReceivedTransferRedeliveryBenchmark {
+    private static final Money AMOUNT = Money.ofMinorUnits(1);
+    private static final int NUM_REDELIVERIES = 64 * 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int historySize;
+
+    private BenchmarkNode node;
+    private ActorRef accounts;
+    private UUID account;
+    private final List<AccountMessages.ReceivedTransfer> redeliveries = new ArrayList<>();
+    private int next = 0;
+
+    /**
+     * saves a snapshot for an account's persistence id, as the account would have after receiving the transfers
+     */
+    private static class Seeder extends AbstractPersistentActor {
+        private final String persistenceId;
+        private final AccountMessages.AccountSnapshot snapshot;
+        private ActorRef requester;
+
+        Seeder (String persistenceId, AccountMessages.AccountSnapshot snapshot) {
+            this.persistenceId = persistenceId;
+            this.snapshot = snapshot;
+        }
+
+        @Override public String persistenceId () {
+            return persistenceId;
+        }
+
+        @Override public Receive createReceiveRecover () {
+            return receiveBuilder().build();
+        }
+
+        @Override public Receive createReceive () {
+            return receiveBuilder()
+                    .matchEquals("seed", msg -> {
+                        requester = sender();
+                        saveSnapshot(snapshot);
+                    })
+                    .match(SaveSnapshotSuccess.class, msg -> requester.tell(msg, self()))
+                    .match(SaveSnapshotFailure.class, msg -> requester.tell(msg, self()))
+                    .build();
+        }
+    }
+
+    @Setup public void setUp () {
+        node = new BenchmarkNode(BenchmarkNode.INMEM_JOURNAL,
+                "core-banking.accounts.transfer-id-retention = " + historySize + "\n" +
+                "core-banking.accounts.passivation.memory-budget = 64GiB");
+
+        account = UUID.randomUUID();
+        final var source = UUID.randomUUID();
+        final var random = new Random(4711);
+        final var transferIds = new ArrayList<UUID>(historySize);
+        for (int i=0; i<historySize; i++)
+            transferIds.add(new UUID(random.nextLong(), random.nextLong()));
+        for (int i=0; i<NUM_REDELIVERIES; i++)
+            redeliveries.add(ImmutableReceivedTransfer.of(i, transferIds.get(random.nextInt(historySize)), AMOUNT, source, Instant.now(), account));
+
+        final var snapshot = ImmutableAccountSnapshot.of(true, Money.ofMinorUnits(historySize), transferIds, List.of(), List.of(),
+                new AtLeastOnceDelivery.AtLeastOnceDeliverySnapshot(0, List$.MODULE$.empty()));
+        final var seeded = ask(node.system.actorOf(Props.create(Seeder.class, () -> new Seeder(AccountEntity.persistenceId(account), snapshot))), "seed");
+        if (! (seeded instanceof SaveSnapshotSuccess))
+            throw new IllegalStateException("seeding failed: " + seeded);
+
+        accounts = node.startAccounts();
+        final var balance = (AccountMessages.GetResponse) ask(accounts, ImmutableGet.of(account));
+        if (balance.balance().minorUnits() != historySize)
+            throw new IllegalStateException("account did not recover from the seeded snapshot");
+    }
+
+    @TearDown public void tearDown () throws Exception {
+        node.shutdown();
+    }
+
+    @Benchmark public Object redeliver () {
+        final var ack = (AccountMessages.TransferAckForSender) ask(accounts, redeliveries.get(next++ & (NUM_REDELIVERIES - 1)));
+        if (! ack.accepted())
+            throw new IllegalStateException("redelivery was not acknowledged");
+        return ack;
+    }
+}
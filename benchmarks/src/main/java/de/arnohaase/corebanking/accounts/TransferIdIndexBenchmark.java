@@ -0,0 +1,79 @@
+package de.arnohaase.corebanking.accounts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Lookup and insertion in an account's {@link TransferIdIndex} when it holds a history of {@code historySize}
+ *  transfer ids, i.e. when it is full and every insertion evicts the oldest id
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TransferIdIndexBenchmark {
+    // ids looked up, cycled through so that lookups do not always hit the same cache lines
+    private static final int NUM_LOOKUPS = 64 * 1024;
+
+    @Param({"1000", "100000", "1000000"})
+    public int historySize;
+
+    private TransferIdIndex index;
+    private final UUID[] known = new UUID[NUM_LOOKUPS];
+    private final UUID[] unknown = new UUID[NUM_LOOKUPS];
+    private int next = 0;
+    private long added = 0;
+
+    @Setup public void setUp () {
+        final var random = new Random(4711);
+        index = new TransferIdIndex(historySize);
+        for (int i=0; i<historySize; i++) {
+            final var id = new UUID(random.nextLong(), random.nextLong());
+            index.add(id);
+            if (i < NUM_LOOKUPS)
+                known[i] = id;
+        }
+        for (int i=historySize; i<NUM_LOOKUPS; i++)
+            known[i] = known[i % historySize];
+        for (int i=0; i<NUM_LOOKUPS; i++)
+            unknown[i] = new UUID(random.nextLong(), random.nextLong());
+    }
+
+    /**
+     * a redelivered transfer
+     */
+    @Benchmark public boolean containsKnown () {
+        return index.contains(known[next++ & (NUM_LOOKUPS - 1)]);
+    }
+
+    /**
+     * a transfer received for the first time
+     */
+    @Benchmark public boolean containsUnknown () {
+        return index.contains(unknown[next++ & (NUM_LOOKUPS - 1)]);
+    }
+
+    /**
+     * recording a received transfer, evicting the oldest id
+     */
+    @Benchmark public int add () {
+        index.add(new UUID(added++, 4711));
+        return index.size();
+    }
+}
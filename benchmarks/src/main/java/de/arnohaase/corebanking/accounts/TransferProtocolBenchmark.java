@@ -0,0 +1,113 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorRef;
+import de.arnohaase.corebanking.benchmarks.BenchmarkNode;
+import de.arnohaase.corebanking.metrics.Metrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static de.arnohaase.corebanking.benchmarks.BenchmarkNode.ask;
+
+
+/**
+ * Transfers between two accounts on a single node for each transfer protocol, see
+ *  'core-banking.accounts.transfer-protocol'. The score is the time until the source account has written a transfer.
+ *  At the end of the run, after all transfers are acknowledged, the actor messages and writes per transfer are printed:
+ *  messages are those received by the accounts' and the watchdog's regions, shards and entities, writes are those of
+ *  account and watchdog entities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class TransferProtocolBenchmark {
+    private static final Money AMOUNT = Money.ofMinorUnits(1);
+
+    @Param({"watched", "direct"})
+    public String transferProtocol;
+
+    @Param({BenchmarkNode.INMEM_JOURNAL})
+    public String journal;
+
+    private BenchmarkNode node;
+    private Metrics metrics;
+    private ActorRef accounts;
+    private UUID account;
+    private UUID target;
+
+    private final LongAdder numTransfers = new LongAdder();
+    private long messagesBefore;
+    private long writesBefore;
+
+    @Setup public void setUp () {
+        // the watchdog's ticks are messages too, so they are made rare
+        node = new BenchmarkNode(journal, "core-banking.accounts.transfer-protocol = " + transferProtocol + "\n" +
+                "core-banking.watchdog.tick = 60s");
+        metrics = Metrics.get(node.system);
+        accounts = node.startAccounts();
+
+        account = UUID.randomUUID();
+        target = UUID.randomUUID();
+        ask(accounts, ImmutableCreateAccount.of(account));
+        ask(accounts, ImmutableCreateAccount.of(target));
+        ask(accounts, ImmutableDeposit.of(Money.ofMinorUnits(1_000_000_000_000L), Instant.now(), account));
+
+        messagesBefore = messages();
+        writesBefore = writes();
+    }
+
+    @TearDown public void tearDown () throws Exception {
+        // wait for outstanding acknowledgements, and for the writes and messages that follow them
+        while (metrics.gauges().get("account_unconfirmed_deliveries").getAsLong() > 0)
+            Thread.sleep(10);
+        long messages;
+        do {
+            messages = messages();
+            Thread.sleep(200);
+        }
+        while (messages != messages());
+
+        final double n = numTransfers.sum();
+        System.out.printf("%n%s: %d transfers, %.2f messages and %.2f writes per transfer%n",
+                transferProtocol, (long) n, (messages() - messagesBefore) / n, (writes() - writesBefore) / n);
+        node.shutdown();
+    }
+
+    private long messages () {
+        long result = 0;
+        for (var e: metrics.counters().entrySet()) {
+            if (e.getKey().startsWith("mailbox_messages{"))
+                result += e.getValue().count();
+        }
+        return result;
+    }
+
+    private long writes () {
+        return metrics.timer("account_persist").count() + metrics.timer("watchdog_persist").count();
+    }
+
+    /**
+     * until the source account has written the transfer; crediting the target happens asynchronously
+     */
+    @Benchmark public Object transfer () {
+        numTransfers.increment();
+        return ask(accounts, ImmutableTransferCommand.of(UUID.randomUUID(), false, AMOUNT, target, Instant.now(), account));
+    }
+}
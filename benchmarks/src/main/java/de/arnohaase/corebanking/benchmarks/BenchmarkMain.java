@@ -0,0 +1,26 @@
+package de.arnohaase.corebanking.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * JMH's command line, except that results are written to 'jmh-result.json' unless a result format is given, so runs
+ *  can be tracked over time.
+ */
+public class BenchmarkMain {
+    public static void main (String[] args) throws Exception {
+        final var cmdLine = new CommandLineOptions(args);
+        if (cmdLine.shouldHelp() || cmdLine.shouldList() || cmdLine.shouldListProfilers() || cmdLine.shouldListResultFormats() || cmdLine.shouldListWithParams()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        final var options = new OptionsBuilder().parent(cmdLine);
+        if (! cmdLine.getResultFormat().hasValue())
+            options.resultFormat(ResultFormatType.JSON).result("jmh-result.json");
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,82 @@
+package de.arnohaase.corebanking.benchmarks;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Status;
+import akka.cluster.Cluster;
+import akka.pattern.PatternsCS;
+import com.typesafe.config.ConfigFactory;
+import de.arnohaase.corebanking.accounts.Accounts;
+import de.arnohaase.corebanking.watchdog.TransferWatchDog;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+
+/**
+ * A single node actor system for benchmarks, with its journal and snapshots in a temporary directory
+ */
+public class BenchmarkNode {
+    public static final String INMEM_JOURNAL = "akka.persistence.journal.inmem";
+    public static final String FILE_JOURNAL = "file-journal";
+
+    private final Path dir;
+    public final ActorSystem system;
+
+    /**
+     * @param config overrides of the application configuration
+     */
+    public BenchmarkNode (String journalPlugin, String config) {
+        try {
+            this.dir = Files.createTempDirectory("core-banking-benchmark");
+        }
+        catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+
+        system = ActorSystem.create("core-banking", ConfigFactory.parseString(config)
+                .withFallback(ConfigFactory.parseString(
+                        "akka.loglevel = WARNING\n" +
+                        "akka.remote.netty.tcp.port = 0\n" +
+                        "akka.cluster.seed-nodes = []\n" +
+                        "akka.persistence.journal.plugin = \"" + journalPlugin + "\"\n" +
+                        "akka.persistence.snapshot-store.plugin = \"akka.persistence.snapshot-store.local\"\n" +
+                        "akka.persistence.snapshot-store.local.dir = \"" + dir.resolve("snapshots") + "\"\n" +
+                        "file-journal.dir = \"" + dir.resolve("journal") + "\"\n" +
+                        "core-banking.read-journal = file-query-journal"))
+                .withFallback(ConfigFactory.load()));
+
+        final var cluster = Cluster.get(system);
+        cluster.join(cluster.selfAddress());
+    }
+
+    /**
+     * starts the transfer watchdog and the accounts' shard region, returning the latter
+     */
+    public ActorRef startAccounts () {
+        final var transferWatchDog = system.actorOf(TransferWatchDog.props(), "transfer-watchdog");
+        return Accounts.start(system, transferWatchDog);
+    }
+
+    public void shutdown () throws Exception {
+        Await.result(system.terminate(), Duration.Inf());
+        try (var files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    /**
+     * asks synchronously, turning a Status.Failure reply into an exception
+     */
+    public static Object ask (ActorRef actor, Object msg) {
+        final var result = PatternsCS.ask(actor, msg, 10_000).toCompletableFuture().join();
+        if (result instanceof Status.Failure)
+            throw new IllegalStateException(((Status.Failure) result).cause());
+        return result;
+    }
+}
@@ -0,0 +1,440 @@
+package de.arnohaase.corebanking.loadtest;
+
+import akka.actor.ActorSystem;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCodes;
+import akka.pattern.PatternsCS;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigParseOptions;
+import de.arnohaase.corebanking.Main;
+import de.arnohaase.corebanking.accounts.ImmutableTransferCommand;
+import de.arnohaase.corebanking.accounts.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * End-to-end load test: pushes a mix of operations through the HTTP routes of one or several nodes at a fixed rate
+ *  (open loop), and reports latency percentiles and goodput per operation. See load-test.conf for the settings.
+ *
+ * An optional argument names a scenario, a resource with settings that override load-test.conf, e.g. isolation.conf.
+ *  The run fails with exit code 1 if an operation's p99 latency exceeds its bound in 'max-p99'.
+ */
+public class LoadTest {
+    private static final Logger log = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final String[] OPERATIONS = { "create", "deposit", "withdraw", "transfer", "get" };
+    private static final String AMOUNT = "1.00";
+
+    private final Config config;
+    private final List<ActorSystem> nodes;
+    private final ActorSystem system;
+    private final Materializer mat;
+    private final Http http;
+    private final ObjectMapper om = new ObjectMapper();
+
+    private final List<String> targets = new ArrayList<>();
+    private final List<UUID> accounts = new ArrayList<>();
+    private final AtomicInteger numInFlight = new AtomicInteger();
+    private final int maxInFlight;
+
+    public static void main (String[] args) throws Exception {
+        var config = ConfigFactory.systemProperties();
+        if (args.length > 0)
+            config = config.withFallback(ConfigFactory.parseResourcesAnySyntax(args[0], ConfigParseOptions.defaults().setAllowMissing(false)));
+        config = config.withFallback(ConfigFactory.parseResources("load-test.conf")).resolve();
+
+        final var nodes = startNodes(config.getConfig("load-test"));
+        final boolean passed;
+        try {
+            passed = new LoadTest(config, nodes).run();
+        }
+        finally {
+            for (ActorSystem node: nodes)
+                node.terminate();
+        }
+        if (! passed)
+            System.exit(1);
+    }
+
+    /**
+     * starts the configured number of nodes in this JVM, sharing a file journal in a temporary directory
+     */
+    private static List<ActorSystem> startNodes (Config config) throws Exception {
+        final var result = new ArrayList<ActorSystem>();
+        final int numNodes = config.getInt("nodes");
+        if (numNodes == 0)
+            return result;
+
+        final var dir = Files.createTempDirectory("core-banking-load-test");
+        final int remotePort = config.getInt("remote-port");
+        final int httpPort = config.getInt("http-port");
+        for (int i=0; i<numNodes; i++) {
+            final var nodeConfig = ConfigFactory.parseString(
+                    "akka.loglevel = WARNING\n" +
+                    "akka.remote.netty.tcp.port = " + (remotePort + i) + "\n" +
+                    "akka.cluster.seed-nodes = [\"akka.tcp://core-banking@localhost:" + remotePort + "\"]\n" +
+                    "core-banking.http-server.port = " + (httpPort + i) + "\n" +
+                    "file-journal.dir = \"" + dir.resolve("journal") + "\"\n" +
+                    "akka.persistence.snapshot-store.local.dir = \"" + dir.resolve("snapshots") + "\"")
+                    .withFallback(config.getConfig("node-config"))
+                    .withFallback(ConfigFactory.load("local"));
+
+            final var node = ActorSystem.create("core-banking", nodeConfig);
+            Main.start(node);
+            result.add(node);
+        }
+        log.info("started {} nodes with their journal in {}", numNodes, dir);
+        return result;
+    }
+
+    private LoadTest (Config config, List<ActorSystem> nodes) {
+        this.config = config.getConfig("load-test");
+        this.nodes = nodes;
+        this.system = ActorSystem.create("load-generator", config.getConfig("load-generator").withFallback(ConfigFactory.load()));
+        this.mat = ActorMaterializer.create(system);
+        this.http = Http.get(system);
+        this.maxInFlight = this.config.getInt("max-in-flight");
+
+        om.enable(SerializationFeature.INDENT_OUTPUT);
+
+        if (this.config.getInt("nodes") > 0) {
+            for (int i=0; i<this.config.getInt("nodes"); i++)
+                targets.add("localhost:" + (this.config.getInt("http-port") + i));
+        }
+        else
+            targets.addAll(this.config.getStringList("targets"));
+    }
+
+    /**
+     * @return false if an operation exceeded its p99 bound or requests were dropped
+     */
+    private boolean run () throws Exception {
+        try {
+            awaitTargets();
+            createAccounts();
+            registerWatchedTransfers(config.getInt("watched-transfers"));
+
+            final double rate = config.getDouble("rate");
+            final long warmupNanos = config.getDuration("warmup").toNanos();
+            final long durationNanos = config.getDuration("duration").toNanos();
+
+            log.info("warming up for {} s at {} requests / s", warmupNanos / 1_000_000_000, rate);
+            openLoop(rate, warmupNanos, newStats());
+
+            log.info("measuring for {} s at {} requests / s", durationNanos / 1_000_000_000, rate);
+            final var stats = newStats();
+            final var readersRunning = startJournalReaders(config.getInt("journal-readers"), stats);
+            openLoop(rate, durationNanos, stats);
+            readersRunning.set(false);
+            awaitCompletion();
+
+            report(stats, durationNanos / 1e9);
+            return checkBounds(stats);
+        }
+        finally {
+            system.terminate();
+        }
+    }
+
+    private static List<OperationStats> newStats () {
+        final var result = new ArrayList<OperationStats>();
+        for (String op: OPERATIONS)
+            result.add(new OperationStats(op));
+        return result;
+    }
+
+    /**
+     * Starts requests at their intended times, i.e. independently of earlier requests' completion. If the generator
+     *  falls behind, it sends the overdue requests right away, and their latency still counts from the intended time.
+     */
+    private void openLoop (double rate, long durationNanos, List<OperationStats> stats) {
+        final var weights = new int[OPERATIONS.length];
+        int totalWeight = 0;
+        for (int i=0; i<OPERATIONS.length; i++) {
+            weights[i] = config.getInt("mix." + OPERATIONS[i]);
+            totalWeight += weights[i];
+        }
+
+        final var random = ThreadLocalRandom.current();
+        final long start = System.nanoTime();
+        for (long n=0; ; n++) {
+            final long intendedNanos = start + (long) (n * 1e9 / rate);
+            if (intendedNanos - start >= durationNanos)
+                break;
+
+            long now;
+            while ((now = System.nanoTime()) < intendedNanos)
+                LockSupport.parkNanos(intendedNanos - now);
+
+            int r = random.nextInt(totalWeight);
+            int op = 0;
+            while (r >= weights[op]) r -= weights[op++];
+            send(op, intendedNanos, stats.get(op));
+        }
+    }
+
+    private void send (int op, long intendedNanos, OperationStats stats) {
+        if (numInFlight.incrementAndGet() > maxInFlight) {
+            numInFlight.decrementAndGet();
+            stats.dropped();
+            return;
+        }
+
+        request(op).whenComplete((response, exc) -> {
+            numInFlight.decrementAndGet();
+            final long latency = System.nanoTime() - intendedNanos;
+            if (exc == null && response.status().isSuccess())
+                stats.success(latency);
+            else if (exc == null && response.status().equals(StatusCodes.SERVICE_UNAVAILABLE))
+                stats.rejected(latency);
+            else
+                stats.error(latency);
+        });
+    }
+
+    /**
+     * Starts clients that each read complete account journals one after the other until the returned flag is cleared,
+     *  as background work competing with the open loop's requests. Their latencies are reported as 'journal'.
+     */
+    private AtomicBoolean startJournalReaders (int numReaders, List<OperationStats> stats) {
+        final var running = new AtomicBoolean(true);
+        if (numReaders > 0) {
+            final var journalStats = new OperationStats("journal");
+            stats.add(journalStats);
+            for (int i=0; i<numReaders; i++)
+                readJournals(running, journalStats);
+        }
+        return running;
+    }
+
+    private void readJournals (AtomicBoolean running, OperationStats stats) {
+        if (! running.get())
+            return;
+
+        numInFlight.incrementAndGet();
+        final long startNanos = System.nanoTime();
+        final var account = accounts.get(ThreadLocalRandom.current().nextInt(accounts.size()));
+        execute(HttpRequest.GET(uri("/accounts/" + account + "/journal"))).whenComplete((response, exc) -> {
+            numInFlight.decrementAndGet();
+            if (exc == null && response.status().isSuccess())
+                stats.success(System.nanoTime() - startNanos);
+            else
+                stats.error(System.nanoTime() - startNanos);
+            readJournals(running, stats);
+        });
+    }
+
+    private CompletionStage<HttpResponse> request (int op) {
+        final var random = ThreadLocalRandom.current();
+        final var account = accounts.get(random.nextInt(accounts.size()));
+        switch (OPERATIONS[op]) {
+            case "create":   return post("/accounts");
+            case "deposit":  return post("/accounts/" + account + "/deposits/" + AMOUNT);
+            case "withdraw": return post("/accounts/" + account + "/withdrawals/" + AMOUNT);
+            case "transfer": return post("/accounts/" + account + "/transfers/" + accounts.get(random.nextInt(accounts.size())) + "/" + AMOUNT);
+            case "get":      return execute(HttpRequest.GET(uri("/accounts/" + account)));
+            default: throw new IllegalArgumentException(OPERATIONS[op]);
+        }
+    }
+
+    private CompletionStage<HttpResponse> post (String path) {
+        return execute(HttpRequest.POST(uri(path)));
+    }
+
+    /**
+     * the response with its entity read completely
+     */
+    private CompletionStage<HttpResponse> execute (HttpRequest request) {
+        return http.singleRequest(request, mat)
+                .thenCompose(response -> response.entity().toStrict(10_000, mat).thenApply(response::withEntity));
+    }
+
+    private String uri (String path) {
+        return "http://" + targets.get(ThreadLocalRandom.current().nextInt(targets.size())) + path;
+    }
+
+    private void awaitTargets () throws Exception {
+        for (String target: targets) {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (true) {
+                try {
+                    final var response = execute(HttpRequest.GET("http://" + target + "/accounts/" + UUID.randomUUID())).toCompletableFuture().get();
+                    if (response.status().intValue() < 500)
+                        break;
+                }
+                catch (Exception exc) {
+                    if (System.nanoTime() > deadline)
+                        throw exc;
+                }
+                if (System.nanoTime() > deadline)
+                    throw new IllegalStateException(target + " is not ready");
+                Thread.sleep(500);
+            }
+        }
+    }
+
+    private void createAccounts () {
+        final int numAccounts = config.getInt("accounts");
+        final var initialBalance = config.getString("initial-balance");
+        log.info("creating {} accounts", numAccounts);
+
+        final int batchSize = 100;
+        for (int i=0; i<numAccounts; i+=batchSize) {
+            final var batch = new ArrayList<CompletableFuture<Void>>();
+            for (int j=i; j<Math.min(numAccounts, i + batchSize); j++) {
+                batch.add(postAdmitted("/accounts")
+                        .thenCompose(response -> {
+                            final var id = UUID.fromString(entityId(response));
+                            synchronized (accounts) {
+                                accounts.add(id);
+                            }
+                            return postAdmitted("/accounts/" + id + "/deposits/" + initialBalance);
+                        })
+                        .thenAccept(response -> {
+                            if (! response.status().isSuccess())
+                                throw new IllegalStateException("initial deposit failed: " + response.status());
+                        })
+                        .toCompletableFuture());
+            }
+            CompletableFuture.allOf(batch.toArray(new CompletableFuture<?>[0])).join();
+        }
+    }
+
+    /**
+     * setup requests are repeated when the server sheds load, after the time it asks for
+     */
+    private CompletionStage<HttpResponse> postAdmitted (String path) {
+        return post(path).thenCompose(response -> {
+            if (! response.status().equals(StatusCodes.SERVICE_UNAVAILABLE))
+                return CompletableFuture.completedFuture(response);
+
+            final long retryAfterSeconds = response.getHeader("Retry-After").map(h -> Long.parseLong(h.value())).orElse(1L);
+            return PatternsCS.after(FiniteDuration.apply(retryAfterSeconds, TimeUnit.SECONDS), system.scheduler(), system.dispatcher(), () -> postAdmitted(path));
+        });
+    }
+
+    /**
+     * Registers transfers with the first in-process node's watchdog that are never acknowledged, so that the watchdog
+     *  pings their source accounts at every ping interval for as long as the test runs
+     */
+    private void registerWatchedTransfers (int numTransfers) {
+        if (numTransfers == 0)
+            return;
+        if (nodes.isEmpty())
+            throw new IllegalArgumentException("watched-transfers needs in-process nodes");
+        log.info("registering {} watched transfers", numTransfers);
+
+        final var watchDog = nodes.get(0).actorSelection("/user/transfer-watchdog");
+        final var random = ThreadLocalRandom.current();
+        final int batchSize = 1000;
+        for (int i=0; i<numTransfers; i+=batchSize) {
+            final var batch = new ArrayList<CompletableFuture<Object>>();
+            for (int j=i; j<Math.min(numTransfers, i + batchSize); j++) {
+                final var transfer = ImmutableTransferCommand.of(UUID.randomUUID(), false, Money.parse(AMOUNT),
+                        accounts.get(random.nextInt(accounts.size())), Instant.now(), accounts.get(random.nextInt(accounts.size())));
+                batch.add(PatternsCS.ask(watchDog, transfer, 30_000).toCompletableFuture());
+            }
+            CompletableFuture.allOf(batch.toArray(new CompletableFuture<?>[0])).join();
+        }
+    }
+
+    private String entityId (HttpResponse response) {
+        if (! response.status().isSuccess())
+            throw new IllegalStateException("creating an account failed: " + response.status());
+        try {
+            final var body = ((akka.http.javadsl.model.HttpEntity.Strict) response.entity()).getData().utf8String();
+            return om.readTree(body).get("entityId").asText();
+        }
+        catch (Exception exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    private void awaitCompletion () throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (numInFlight.get() > 0 && System.nanoTime() < deadline)
+            Thread.sleep(100);
+        if (numInFlight.get() > 0)
+            log.warn("{} requests still in flight, they are not included in the results", numInFlight.get());
+    }
+
+    private void report (List<OperationStats> stats, double durationSeconds) throws Exception {
+        final Path dir = Paths.get(config.getString("report-dir"));
+        Files.createDirectories(dir);
+
+        final var summary = new LinkedHashMap<String, Object>();
+        summary.put("rate", config.getDouble("rate"));
+        summary.put("durationSeconds", durationSeconds);
+        summary.put("nodes", targets.size());
+        final var operations = new LinkedHashMap<String, Object>();
+        for (OperationStats s: stats) {
+            operations.put(s.name, s.summary(durationSeconds));
+            try (var out = new PrintStream(dir.resolve(s.name + ".hgrm").toFile())) {
+                s.latencyNanos.outputPercentileDistribution(out, 1_000_000.0);
+            }
+            if (s.numRejected.sum() > 0) {
+                try (var out = new PrintStream(dir.resolve(s.name + "-rejected.hgrm").toFile())) {
+                    s.rejectedLatencyNanos.outputPercentileDistribution(out, 1_000_000.0);
+                }
+            }
+        }
+        summary.put("operations", operations);
+
+        final var json = om.writeValueAsString(summary);
+        Files.write(dir.resolve("summary.json"), json.getBytes("UTF-8"));
+        System.out.println(json);
+    }
+
+    /**
+     * Dropped requests fail the run: their latency is unknown, and leaving them out would hide the load at which they
+     *  were dropped from the percentiles
+     */
+    private boolean checkBounds (List<OperationStats> stats) {
+        final var bounds = config.getConfig("max-p99");
+        boolean passed = true;
+        for (OperationStats s: stats) {
+            if (s.numDropped.sum() > 0) {
+                log.error("FAILED: {} {} requests were dropped because {} were in flight", s.numDropped.sum(), s.name, maxInFlight);
+                passed = false;
+            }
+            if (! bounds.hasPath(s.name))
+                continue;
+
+            final long p99 = s.latencyNanos.getValueAtPercentile(99);
+            final long bound = bounds.getDuration(s.name).toNanos();
+            if (p99 > bound) {
+                log.error("FAILED: {} p99 is {} ms, the bound is {} ms", s.name, p99 / 1_000_000.0, bound / 1_000_000.0);
+                passed = false;
+            }
+            else
+                log.warn("passed: {} p99 is {} ms, the bound is {} ms", s.name, p99 / 1_000_000.0, bound / 1_000_000.0);
+        }
+        return passed;
+    }
+}
@@ -0,0 +1,78 @@
+package de.arnohaase.corebanking.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Latencies and outcomes of one operation type, recorded concurrently from the requests' completions
+ */
+class OperationStats {
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+    final String name;
+    // all responses except rejections, which are fast and would hide the latency of the requests that were served
+    final Histogram latencyNanos = new ConcurrentHistogram(3);
+    final Histogram rejectedLatencyNanos = new ConcurrentHistogram(3);
+    final LongAdder numErrors = new LongAdder();
+    final LongAdder numRejected = new LongAdder();
+    final LongAdder numDropped = new LongAdder();
+
+    OperationStats (String name) {
+        this.name = name;
+    }
+
+    void success (long latencyNanos) {
+        this.latencyNanos.recordValue(latencyNanos);
+    }
+
+    void error (long latencyNanos) {
+        this.latencyNanos.recordValue(latencyNanos);
+        numErrors.increment();
+    }
+
+    /**
+     * an error response by which the server shed load, i.e. '503 Service Unavailable'
+     */
+    void rejected (long latencyNanos) {
+        rejectedLatencyNanos.recordValue(latencyNanos);
+        numRejected.increment();
+    }
+
+    void dropped () {
+        numDropped.increment();
+    }
+
+    /**
+     * summary for the JSON report, latencies in milliseconds. 'count' and 'latencyMillis' cover the requests that were
+     *  not rejected, and 'goodput' is the successful requests per second.
+     */
+    Map<String, Object> summary (double durationSeconds) {
+        final var result = new LinkedHashMap<String, Object>();
+        result.put("count", latencyNanos.getTotalCount());
+        result.put("errors", numErrors.sum());
+        result.put("rejected", numRejected.sum());
+        result.put("dropped", numDropped.sum());
+        result.put("goodput", (latencyNanos.getTotalCount() - numErrors.sum()) / durationSeconds);
+        result.put("latencyMillis", percentiles(latencyNanos));
+        if (numRejected.sum() > 0)
+            result.put("rejectedLatencyMillis", percentiles(rejectedLatencyNanos));
+        return result;
+    }
+
+    private static Map<String, Double> percentiles (Histogram histogram) {
+        final var result = new LinkedHashMap<String, Double>();
+        for (double p: PERCENTILES)
+            result.put("p" + p, millis(histogram.getValueAtPercentile(p)));
+        result.put("max", millis(histogram.getMaxValue()));
+        return result;
+    }
+
+    private static double millis (long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,111 @@
+package de.arnohaase.corebanking;
+
+import akka.pattern.AskTimeoutException;
+import com.typesafe.config.Config;
+import de.arnohaase.corebanking.metrics.Counter;
+import de.arnohaase.corebanking.metrics.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+
+/**
+ * Limits the number of requests a node executes concurrently, rejecting excess requests right away instead of queueing
+ *  them in the accounts' mailboxes where they would time out after work was spent on them.
+ *
+ * The limit adapts to the observed latency (AIMD): while requests complete within 'target-latency' and the limit is
+ *  actually used, it grows by about one per round trip. A request that takes longer or times out shrinks it by
+ *  'backoff-ratio', at most once per 'target-latency' so a burst of slow requests counts as a single signal.
+ */
+class AdmissionControl {
+    /**
+     * the failure of rejected requests; it carries no stack trace because it is raised when the node is busy
+     */
+    static class Overloaded extends RuntimeException {
+        Overloaded () {
+            super("overloaded", null, false, false);
+        }
+    }
+
+    private static final Overloaded OVERLOADED = new Overloaded();
+
+    private final double minLimit;
+    private final double maxLimit;
+    private final double backoffRatio;
+    private final long targetLatencyNanos;
+
+    private final Counter rejected;
+
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos;
+
+    AdmissionControl (Config config, Metrics metrics) {
+        this.minLimit = config.getInt("min-limit");
+        this.maxLimit = config.getInt("max-limit");
+        this.backoffRatio = config.getDouble("backoff-ratio");
+        this.targetLatencyNanos = config.getDuration("target-latency").toNanos();
+        this.limit = config.getInt("initial-limit");
+        this.lastDecreaseNanos = System.nanoTime() - targetLatencyNanos;
+
+        if (minLimit < 1 || minLimit > limit || limit > maxLimit || backoffRatio <= 0 || backoffRatio >= 1)
+            throw new IllegalArgumentException("invalid admission control configuration");
+
+        this.rejected = metrics.counter("http_admission_rejected");
+        metrics.gauge("http_admission_limit", () -> (long) limit());
+        metrics.gauge("http_admission_in_flight", this::inFlight);
+    }
+
+    /**
+     * starts the request if the limit permits, or returns a stage failed with {@link Overloaded}
+     */
+    <T> CompletionStage<T> execute (Supplier<CompletionStage<T>> request) {
+        if (! tryAcquire()) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(OVERLOADED);
+        }
+
+        final long startNanos = System.nanoTime();
+        final CompletionStage<T> result;
+        try {
+            result = request.get();
+        }
+        catch (RuntimeException exc) {
+            release(startNanos, false);
+            throw exc;
+        }
+        return result.whenComplete((r, exc) ->
+                release(startNanos, exc instanceof AskTimeoutException || (exc != null && exc.getCause() instanceof AskTimeoutException)));
+    }
+
+    private synchronized boolean tryAcquire () {
+        if (inFlight >= (int) limit)
+            return false;
+        inFlight += 1;
+        return true;
+    }
+
+    private synchronized void release (long startNanos, boolean timedOut) {
+        final long now = System.nanoTime();
+        final boolean utilized = inFlight * 2 >= limit;
+        inFlight -= 1;
+
+        if (timedOut || now - startNanos > targetLatencyNanos) {
+            if (now - lastDecreaseNanos >= targetLatencyNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = now;
+            }
+        }
+        else if (utilized) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    synchronized double limit () {
+        return limit;
+    }
+    synchronized long inFlight () {
+        return inFlight;
+    }
+}
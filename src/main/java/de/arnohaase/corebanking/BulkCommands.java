@@ -0,0 +1,157 @@
+package de.arnohaase.corebanking;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.pattern.PatternsCS;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.typesafe.config.Config;
+import de.arnohaase.corebanking.accounts.*;
+import org.immutables.value.Value;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Executes a stream of newline delimited JSON commands like
+ *  <code>{"account": "...", "kind": "deposit" | "withdrawal" | "transfer", "amount": "12.34", "target": "..."}</code>.
+ *  Commands arriving within a batch window are grouped per account, and each group is sent to its account as a
+ *  single {@link AccountMessages.BulkCommand}. The result is a stream of one JSON result per command, in completion
+ *  order and referring to the command's line number.
+ *
+ * Transfers are sent to their source accounts unwatched, whatever the transfer protocol: an account with transfers in
+ *  a batch registers itself with the watchdog once (see {@link AccountMessages.WatchAccount}) rather than every
+ *  transfer being registered with a write of its own before it is executed.
+ */
+class BulkCommands {
+    private static final ByteString NEWLINE = ByteString.fromString("\n");
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    private final ActorRef accounts;
+    private final ObjectMapper om;
+    private final JsonWriters json;
+
+    private final int batchSize;
+    private final FiniteDuration batchWindow;
+    private final int parallelism;
+    private final long askTimeoutMillis;
+
+    BulkCommands (ActorRef accounts, ObjectMapper om, JsonWriters json, Config rootConfig) {
+        this.accounts = accounts;
+        this.om = om;
+        this.json = json;
+
+        final var config = rootConfig.getConfig("core-banking.bulk");
+        this.batchSize = config.getInt("batch-size");
+        this.batchWindow = FiniteDuration.apply(config.getDuration("batch-window").toMillis(), TimeUnit.MILLISECONDS);
+        this.parallelism = config.getInt("parallelism");
+        this.askTimeoutMillis = config.getDuration("ask-timeout").toMillis();
+    }
+
+    @JsonSerialize
+    @Value.Immutable
+    interface BulkLineResult {
+        @Value.Parameter long line();
+        @Value.Parameter boolean accepted();
+        @Value.Parameter String reason();
+    }
+
+    private static class Item {
+        final long line;
+        final AccountMessages.WithEntityId command;
+        final String error;
+
+        Item (long line, AccountMessages.WithEntityId command, String error) {
+            this.line = line;
+            this.command = command;
+            this.error = error;
+        }
+    }
+
+    Flow<ByteString, ByteString, NotUsed> flow () {
+        return Flow.of(ByteString.class)
+                .via(Framing.delimiter(NEWLINE, MAX_LINE_LENGTH, FramingTruncation.ALLOW))
+                .zipWithIndex()
+                .filter(p -> p.first().nonEmpty())
+                .map(p -> parse(p.first(), (Long) p.second() + 1))
+                .groupedWithin(batchSize, batchWindow)
+                .mapConcat(this::groupByAccount)
+                .mapAsyncUnordered(parallelism, this::execute)
+                .mapConcat(results -> results)
+                .map(json::writeLine);
+    }
+
+    private Item parse (ByteString line, long lineNumber) {
+        try {
+            final var node = om.readTree(line.toArray());
+            final var account = UUID.fromString(node.path("account").asText());
+            final var amount = Money.parse(node.path("amount").asText());
+
+            switch (node.path("kind").asText()) {
+                case "deposit":
+                    return new Item(lineNumber, ImmutableDeposit.of(amount, Instant.now(), account), null);
+                case "withdrawal":
+                    return new Item(lineNumber, ImmutableWithdraw.of(amount, Instant.now(), account), null);
+                case "transfer":
+                    final var target = UUID.fromString(node.path("target").asText());
+                    return new Item(lineNumber, ImmutableTransferCommand.of(UUID.randomUUID(), false, amount, target, Instant.now(), account), null);
+                default:
+                    return new Item(lineNumber, null, "unsupported command");
+            }
+        }
+        catch (Exception exc) {
+            return new Item(lineNumber, null, "invalid command");
+        }
+    }
+
+    private List<List<Item>> groupByAccount (List<Item> batch) {
+        final var failed = new ArrayList<Item>();
+        final var byAccount = new LinkedHashMap<UUID, List<Item>>();
+        for (Item item: batch) {
+            if (item.command == null)
+                failed.add(item);
+            else
+                byAccount.computeIfAbsent(item.command.entityId(), x -> new ArrayList<>()).add(item);
+        }
+
+        final var result = new ArrayList<List<Item>>(byAccount.values());
+        if (! failed.isEmpty())
+            result.add(failed);
+        return result;
+    }
+
+    private CompletionStage<List<BulkLineResult>> execute (List<Item> group) {
+        final var results = new ArrayList<BulkLineResult>(group.size());
+        if (group.get(0).command == null) {
+            for (Item item: group)
+                results.add(ImmutableBulkLineResult.of(item.line, false, item.error));
+            return CompletableFuture.completedFuture(results);
+        }
+
+        final var commands = new ArrayList<AccountMessages.WithEntityId>(group.size());
+        for (Item item: group)
+            commands.add(item.command);
+
+        return PatternsCS.ask(accounts, ImmutableBulkCommand.of(commands, group.get(0).command.entityId()), askTimeoutMillis)
+                .handle((response, exc) -> {
+                    for (int i=0; i<group.size(); i++) {
+                        if (response instanceof AccountMessages.BulkResponse) {
+                            final var itemResult = ((AccountMessages.BulkResponse) response).results().get(i);
+                            results.add(ImmutableBulkLineResult.of(group.get(i).line, itemResult.accepted(), itemResult.reason()));
+                        }
+                        else
+                            results.add(ImmutableBulkLineResult.of(group.get(i).line, false, "outcome unknown, account did not respond in time"));
+                    }
+                    return results;
+                });
+    }
+}
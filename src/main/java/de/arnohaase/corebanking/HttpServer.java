@@ -5,34 +5,57 @@ import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.http.javadsl.ConnectHttp;
 import akka.http.javadsl.Http;
-import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpCharsets;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.RawHeader;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.ExceptionHandler;
 import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
 import akka.pattern.PatternsCS;
+import akka.stream.ActorAttributes;
 import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.guava.GuavaModule;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.typesafe.config.Config;
 import de.arnohaase.corebanking.accounts.*;
+import de.arnohaase.corebanking.batch.ImmutableGetStatus;
+import de.arnohaase.corebanking.batch.ImmutableStart;
+import de.arnohaase.corebanking.metrics.Metrics;
+import de.arnohaase.corebanking.metrics.PrometheusFormat;
+import de.arnohaase.corebanking.metrics.StageTimer;
+import de.arnohaase.corebanking.warmup.AccountWarmUp;
+import de.arnohaase.corebanking.warmup.WarmUpMessages;
 
-import java.math.BigDecimal;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.NoSuchElementException;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 
 import static akka.http.javadsl.server.PathMatchers.*;
 
 
 public class HttpServer extends AbstractActor {
-    public static Props props(String host, int port, ActorRef accounts) {
-        return Props.create(HttpServer.class, () -> new HttpServer(host, port, accounts));
+    public static Props props(String host, int port, ActorRef accounts, ActorRef endOfDay, ActorRef warmUp) {
+        return Props.create(HttpServer.class, () -> new HttpServer(host, port, accounts, endOfDay, warmUp))
+                .withDispatcher(HTTP_DISPATCHER);
     }
 
-    private static final ObjectMapper om = new ObjectMapper();
+    static final ObjectMapper om = new ObjectMapper();
     static {
         om.registerModule(new GuavaModule());
         om.registerModule(new Jdk8Module());
@@ -40,12 +63,34 @@ public class HttpServer extends AbstractActor {
 
         om.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
     }
+    static final JsonWriters json = new JsonWriters(om);
 
-    public HttpServer (String host, int port, ActorRef accounts) {
+    private static final String HTTP_DISPATCHER = "core-banking.dispatchers.http";
+    private static final String READS_DISPATCHER = "core-banking.dispatchers.reads";
+
+    private static final ContentType NDJSON = MediaTypes.applicationWithFixedCharset("x-ndjson", HttpCharsets.UTF_8).toContentType();
+    private static final long MAX_JOURNAL_PAGE_SIZE = 10_000;
+    // lines that are ready while the client is still receiving earlier ones are sent together, up to this size
+    private static final long MAX_CHUNK_SIZE = 64 * 1024;
+
+    private final Metrics metrics = Metrics.get(context().system());
+    private final Config config = context().system().settings().config().getConfig("core-banking.http-server");
+    private final AdmissionControl admission = new AdmissionControl(config.getConfig("admission"), metrics);
+    private final HttpResponse overloaded = HttpResponse.create()
+            .withStatus(StatusCodes.SERVICE_UNAVAILABLE)
+            .addHeader(RawHeader.create("Retry-After", String.valueOf(Math.max(1, config.getDuration("admission.retry-after").getSeconds()))));
+
+    public HttpServer (String host, int port, ActorRef accounts, ActorRef endOfDay, ActorRef warmUp) {
         var http = Http.get(context().system());
-        var mat = ActorMaterializer.create(context().system());
+        var mat = ActorMaterializer.create(ActorMaterializerSettings.create(context().system()).withDispatcher(HTTP_DISPATCHER), context().system());
+        var readsMat = ActorMaterializer.create(ActorMaterializerSettings.create(context().system()).withDispatcher(READS_DISPATCHER), context().system());
 
-        var routeFlow = new Routes().createRoute(accounts).flow(context().system(), mat);
+        var journal = new AccountJournal(context().system());
+        var readModel = new AccountReadModel(context().system(), accounts, journal, readsMat);
+        readModel.start();
+        var bulk = new BulkCommands(accounts, om, json, context().system().settings().config());
+
+        var routeFlow = new Routes().createRoute(accounts, journal, readModel, bulk, endOfDay, warmUp).flow(context().system(), mat);
         http.bindAndHandle(routeFlow, ConnectHttp.toHost(host, port), mat);
     }
 
@@ -54,31 +99,122 @@ public class HttpServer extends AbstractActor {
         return AbstractActor.emptyBehavior();
     }
 
+    /**
+     * a route's ask timeout and the metrics of its asks, resolved once rather than per request
+     */
+    private class RouteAsk {
+        final long timeoutMillis;
+        final StageTimer timer;
+
+        RouteAsk (String route) {
+            this.timeoutMillis = askTimeoutMillis(route);
+            this.timer = metrics.stageTimer("http_ask{route=\"" + route + "\"}");
+        }
+    }
+
+    private long askTimeoutMillis (String route) {
+        return config.getDuration("ask-timeouts." + route).toMillis();
+    }
+
     private class Routes extends AllDirectives {
-        private Route createRoute(ActorRef accounts) {
+        private final RouteAsk create = new RouteAsk("create");
+        private final RouteAsk deposit = new RouteAsk("deposit");
+        private final RouteAsk withdrawal = new RouteAsk("withdrawal");
+        private final RouteAsk transfer = new RouteAsk("transfer");
+        private final long endOfDayTimeoutMillis = askTimeoutMillis("end-of-day");
+        private final long readyTimeoutMillis = askTimeoutMillis("ready");
+
+        private Route createRoute(ActorRef accounts, AccountJournal journal, AccountReadModel readModel, BulkCommands bulk, ActorRef endOfDay, ActorRef warmUp) {
             return handleExceptions(
                 ExceptionHandler.newBuilder()
                     .match(NoSuchElementException.class, exc -> complete(StatusCodes.NOT_FOUND))
                     .match(IllegalArgumentException.class, exc -> complete(StatusCodes.BAD_REQUEST))
+                    .match(AdmissionControl.Overloaded.class, exc -> complete(overloaded))
                     .build(),
                 () -> route (
                     pathPrefix("accounts", () -> route (
-                        pathEnd(() -> post(() -> completeOKWithFuture(PatternsCS.ask(accounts, new AccountMessages.New(), 5000), Jackson.marshaller(om)))),
+                        pathEnd(() -> post(() -> completeOKWithFuture(ask(accounts, create, ImmutableCreateAccount.of(UUID.randomUUID())), json.marshaller()))),
+                        path("bulk", () -> post(() -> extractDataBytes(commands ->
+                            complete(ndjson(commands.via(bulk.flow())))
+                        ))),
                         pathPrefix(uuidSegment(), accountId -> route (
-                            pathEnd(() -> get(() -> completeOKWithFuture (PatternsCS.ask(accounts, ImmutableGet.of(accountId), 5000), Jackson.marshaller(om)))),
-                            path(segment("deposits").slash(doubleSegment()), amount ->
-                                post(() -> completeOKWithFuture(PatternsCS.ask(accounts, ImmutableDeposit.of(BigDecimal.valueOf(amount), Instant.now(), accountId), 5000), Jackson.marshaller(om)))
+                            pathEnd(() -> get(() ->
+                                parameterOptional("consistency", consistency ->
+                                    completeOKWithFuture(readModel.balance(accountId, consistency.filter("strong"::equals).isPresent()), json.marshaller())
+                                ))
                             ),
-                            path(segment("withdrawals").slash(doubleSegment()), amount ->
-                                post(() -> completeOKWithFuture(PatternsCS.ask(accounts, ImmutableWithdraw.of(BigDecimal.valueOf(amount), Instant.now(), accountId), 5000), Jackson.marshaller(om)))
+                            path("recent", () -> get(() -> completeOKWithFuture(readModel.recent(accountId), json.marshaller()))),
+                            path("journal", () -> get(() ->
+                                parameterOptional(StringUnmarshallers.LONG, "from", from ->
+                                parameterOptional(StringUnmarshallers.LONG, "limit", limit ->
+                                parameterOptional(StringUnmarshallers.BOOLEAN, "follow", follow ->
+                                    completeJournal(journal, accountId, from.orElse(1L), limit.orElse(MAX_JOURNAL_PAGE_SIZE), follow.orElse(false))
+                                ))))
                             ),
-                            path(segment("transfers").slash(uuidSegment()).slash(doubleSegment()), (targetAccount, amount) ->
-                                post(() -> completeOKWithFuture(PatternsCS.ask(accounts, ImmutableTransferCommand.of(UUID.randomUUID(), false, BigDecimal.valueOf(amount), targetAccount, Instant.now(), accountId), 5000), Jackson.marshaller(om)))
+                            path(segment("deposits").slash(segment()), amount ->
+                                post(() -> completeOKWithFuture(ask(accounts, deposit, ImmutableDeposit.of(Money.parse(amount), Instant.now(), accountId)), json.marshaller()))
+                            ),
+                            path(segment("withdrawals").slash(segment()), amount ->
+                                post(() -> completeOKWithFuture(ask(accounts, withdrawal, ImmutableWithdraw.of(Money.parse(amount), Instant.now(), accountId)), json.marshaller()))
+                            ),
+                            path(segment("transfers").slash(uuidSegment()).slash(segment()), (targetAccount, amount) ->
+                                post(() -> completeOKWithFuture(ask(accounts, transfer, ImmutableTransferCommand.of(UUID.randomUUID(), false, Money.parse(amount), targetAccount, Instant.now(), accountId)), json.marshaller()))
                             )
                         ))
+                    )),
+                    path(segment("end-of-day").slash(segment()), date -> route (
+                        post(() -> completeOKWithFuture(PatternsCS.ask(endOfDay, ImmutableStart.of(businessDate(date)), endOfDayTimeoutMillis), json.marshaller())),
+                        get(() -> completeOKWithFuture(PatternsCS.ask(endOfDay, ImmutableGetStatus.of(businessDate(date)), endOfDayTimeoutMillis), json.marshaller()))
+                    )),
+                    path("ready", () -> get(() ->
+                        onSuccess(() -> PatternsCS.ask(warmUp, AccountWarmUp.GET_STATUS, readyTimeoutMillis), status ->
+                            complete(((WarmUpMessages.Status) status).ready() ? StatusCodes.OK : StatusCodes.SERVICE_UNAVAILABLE, status, json.marshaller())
+                        )
+                    )),
+                    path("metrics", () -> get(() ->
+                        complete(HttpEntities.create(ContentTypes.TEXT_PLAIN_UTF8, PrometheusFormat.format(metrics)))
                     ))
                 )
             );
         }
+
+        /**
+         * asks the accounts with the route's timeout if admission control permits, recording the round trip time per route
+         */
+        private CompletionStage<Object> ask(ActorRef accounts, RouteAsk route, Object msg) {
+            return admission.execute(() -> route.timer.time(PatternsCS.ask(accounts, msg, route.timeoutMillis)));
+        }
+
+        private LocalDate businessDate (String s) {
+            try {
+                return LocalDate.parse(s);
+            }
+            catch (DateTimeParseException exc) {
+                throw new IllegalArgumentException("not a valid date: " + s, exc);
+            }
+        }
+
+        /**
+         * streams the journal as newline delimited JSON, one entry per line. Clients page through the journal by passing
+         *  the last sequence number they received plus one as 'from'.
+         */
+        private Route completeJournal(AccountJournal journal, UUID accountId, long from, long limit, boolean follow) {
+            if (from < 1 || limit < 1 || limit > MAX_JOURNAL_PAGE_SIZE)
+                throw new IllegalArgumentException("invalid page");
+
+            // reading and serializing runs on the reads dispatcher, so large journals do not hold up other requests
+            final var lines = journal.entries(accountId, from, limit, follow)
+                    .map(env -> json.writeLine(ImmutableJournalEntry.of(env.sequenceNr(), env.event())))
+                    .addAttributes(ActorAttributes.dispatcher(READS_DISPATCHER))
+                    .async();
+            return complete(ndjson(lines));
+        }
+
+        /**
+         * a chunked entity of newline delimited JSON, combining lines into larger chunks while the client is behind
+         */
+        private HttpEntity.Chunked ndjson(Source<ByteString, ?> lines) {
+            return HttpEntities.createChunked(NDJSON, lines.batchWeighted(MAX_CHUNK_SIZE, line -> (long) line.length(), line -> line, ByteString::concat));
+        }
     }
 }
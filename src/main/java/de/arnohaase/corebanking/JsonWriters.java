@@ -0,0 +1,450 @@
+package de.arnohaase.corebanking;
+
+import akka.http.javadsl.marshalling.Marshaller;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.RequestEntity;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.arnohaase.corebanking.accounts.*;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+
+/**
+ * JSON for HTTP responses, written by a writer per response class with the bytes of its field names and constant
+ *  values precomputed. The output is the same as the {@link ObjectMapper}'s for these classes, including the order of
+ *  fields; values of other classes are written by the ObjectMapper.
+ *
+ * Each thread writes into its own reused buffer, so a response costs a single allocation for its bytes. Lists are
+ *  written as arrays, with each element's writer looked up by its class.
+ */
+class JsonWriters {
+    private static final int INITIAL_CAPACITY = 4096;
+    // a thread's buffer is replaced after a larger response rather than holding on to the memory
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+    private static final byte[] HEX_UPPER = ascii("0123456789ABCDEF");
+
+    private final ObjectMapper om;
+    private final Map<Class<?>, Writer<?>> writers = new HashMap<>();
+    private final ThreadLocal<Output> outputs = ThreadLocal.withInitial(Output::new);
+
+    JsonWriters (ObjectMapper om) {
+        this.om = om;
+
+        register(ImmutableCreateAccount.class, new ObjectWriter<ImmutableCreateAccount>()
+                .field("entityId", (msg, out) -> out.uuid(msg.entityId())));
+        register(AccountMessages.OK.class, new ObjectWriter<AccountMessages.OK>()
+                .field("timestamp", (msg, out) -> out.instant(msg.getTimestamp())));
+        register(ImmutableGetResponse.class, new ObjectWriter<ImmutableGetResponse>()
+                .field("balance", (msg, out) -> out.money(msg.balance()))
+                .field("sequenceNr", (msg, out) -> out.number(msg.sequenceNr()))
+                .field("entityId", (msg, out) -> out.uuid(msg.entityId())));
+        register(ImmutableDeposit.class, new ObjectWriter<ImmutableDeposit>()
+                .constant("kind", "deposit")
+                .field("amount", (msg, out) -> out.money(msg.amount()))
+                .field("timestamp", (msg, out) -> out.instant(msg.timestamp()))
+                .field("entityId", (msg, out) -> out.uuid(msg.entityId())));
+        register(ImmutableWithdraw.class, new ObjectWriter<ImmutableWithdraw>()
+                .constant("kind", "withdrawal")
+                .field("amount", (msg, out) -> out.money(msg.amount()))
+                .field("timestamp", (msg, out) -> out.instant(msg.timestamp()))
+                .field("entityId", (msg, out) -> out.uuid(msg.entityId())));
+        register(ImmutableTransferCommand.class, new ObjectWriter<ImmutableTransferCommand>()
+                .constant("kind", "transfer")
+                .field("transferId", (msg, out) -> out.uuid(msg.transferId()))
+                .field("amount", (msg, out) -> out.money(msg.amount()))
+                .field("targetAccount", (msg, out) -> out.uuid(msg.targetAccount()))
+                .field("timestamp", (msg, out) -> out.instant(msg.timestamp()))
+                .field("entityId", (msg, out) -> out.uuid(msg.entityId()))
+                .field("isWatched", (msg, out) -> out.bool(msg.isWatched())));
+        register(ImmutableReceivedTransfer.class, new ObjectWriter<ImmutableReceivedTransfer>()
+                .constant("kind", "received-transfer")
+                .field("deliveryId", (msg, out) -> out.number(msg.deliveryId()))
+                .field("transferId", (msg, out) -> out.uuid(msg.transferId()))
+                .field("amount", (msg, out) -> out.money(msg.amount()))
+                .field("sourceAccount", (msg, out) -> out.uuid(msg.sourceAccount()))
+                .field("timestamp", (msg, out) -> out.instant(msg.timestamp()))
+                .field("entityId", (msg, out) -> out.uuid(msg.entityId())));
+        register(ImmutableTransferAckForSender.class, new ObjectWriter<ImmutableTransferAckForSender>()
+                .constant("kind", "transfer-ack")
+                .field("deliveryId", (msg, out) -> out.number(msg.deliveryId()))
+                .field("transferId", (msg, out) -> out.uuid(msg.transferId()))
+                .field("amount", (msg, out) -> out.money(msg.amount()))
+                .field("accepted", (msg, out) -> out.bool(msg.accepted()))
+                .field("timestamp", (msg, out) -> out.instant(msg.timestamp()))
+                .field("entityId", (msg, out) -> out.uuid(msg.entityId())));
+        register(ImmutablePosting.class, new ObjectWriter<ImmutablePosting>()
+                .constant("kind", "posting")
+                .field("postingId", (msg, out) -> out.uuid(msg.postingId()))
+                .field("interest", (msg, out) -> out.money(msg.interest()))
+                .field("fee", (msg, out) -> out.money(msg.fee()))
+                .field("timestamp", (msg, out) -> out.instant(msg.timestamp()))
+                .field("entityId", (msg, out) -> out.uuid(msg.entityId())));
+        register(ImmutableJournalEntry.class, new ObjectWriter<ImmutableJournalEntry>()
+                .field("sequenceNr", (msg, out) -> out.number(msg.sequenceNr()))
+                .field("entry", (msg, out) -> write(msg.entry(), out)));
+        register(ImmutableBulkItemResult.class, new ObjectWriter<ImmutableBulkItemResult>()
+                .field("accepted", (msg, out) -> out.bool(msg.accepted()))
+                .field("reason", (msg, out) -> out.string(msg.reason())));
+        register(ImmutableBulkLineResult.class, new ObjectWriter<ImmutableBulkLineResult>()
+                .field("line", (msg, out) -> out.number(msg.line()))
+                .field("accepted", (msg, out) -> out.bool(msg.accepted()))
+                .field("reason", (msg, out) -> out.string(msg.reason())));
+    }
+
+    private <T> void register (Class<T> cls, Writer<T> writer) {
+        writers.put(cls, writer);
+    }
+
+    /**
+     * the classes written by a writer of their own rather than by the ObjectMapper
+     */
+    Set<Class<?>> registeredClasses () {
+        return Collections.unmodifiableSet(writers.keySet());
+    }
+
+    /**
+     * a response entity with the value's JSON, for routes completing with a single value
+     */
+    <T> Marshaller<T, RequestEntity> marshaller () {
+        return Marshaller.withFixedContentType(ContentTypes.APPLICATION_JSON, value -> HttpEntities.create(ContentTypes.APPLICATION_JSON, write(value)));
+    }
+
+    ByteString write (Object value) {
+        final var out = output();
+        write(value, out);
+        return out.take();
+    }
+
+    /**
+     * the value's JSON followed by a newline, for newline delimited JSON
+     */
+    ByteString writeLine (Object value) {
+        final var out = output();
+        write(value, out);
+        out.ascii('\n');
+        return out.take();
+    }
+
+    /**
+     * the thread's buffer, emptied in case a previous write failed half way
+     */
+    private Output output () {
+        final var out = outputs.get();
+        out.len = 0;
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void write (Object value, Output out) {
+        if (value == null) {
+            out.raw(NULL);
+            return;
+        }
+
+        final var writer = (Writer<Object>) writers.get(value.getClass());
+        if (writer != null)
+            writer.write(value, out);
+        else if (value instanceof List) {
+            out.ascii('[');
+            final var list = (List<?>) value;
+            for (int i=0; i<list.size(); i++) {
+                if (i > 0) out.ascii(',');
+                write(list.get(i), out);
+            }
+            out.ascii(']');
+        }
+        else {
+            try {
+                out.raw(om.writeValueAsBytes(value));
+            }
+            catch (JsonProcessingException exc) {
+                throw new UncheckedIOException(exc);
+            }
+        }
+    }
+
+    private interface Writer<T> {
+        void write (T value, Output out);
+    }
+
+    /**
+     * writes a JSON object's fields in the order they were added. Names and constants are plain identifiers, so they
+     *  need no escaping.
+     */
+    private static class ObjectWriter<T> implements Writer<T> {
+        private final List<byte[]> prefixes = new ArrayList<>();
+        private final List<BiConsumer<T, Output>> values = new ArrayList<>();
+        // bytes up to the next field's value, or up to the end of the object
+        private final StringBuilder pending = new StringBuilder("{");
+        private byte[] suffix = ascii("{}");
+
+        ObjectWriter<T> constant (String name, String value) {
+            name(name).append('"').append(value).append('"');
+            suffix = ascii(pending + "}");
+            return this;
+        }
+
+        ObjectWriter<T> field (String name, BiConsumer<T, Output> value) {
+            prefixes.add(ascii(name(name).toString()));
+            values.add(value);
+            pending.setLength(0);
+            suffix = ascii("}");
+            return this;
+        }
+
+        private StringBuilder name (String name) {
+            if (pending.length() != 1 || ! prefixes.isEmpty())
+                pending.append(',');
+            return pending.append('"').append(name).append("\":");
+        }
+
+        @Override public void write (T value, Output out) {
+            for (int i=0; i<prefixes.size(); i++) {
+                out.raw(prefixes.get(i));
+                values.get(i).accept(value, out);
+            }
+            out.raw(suffix);
+        }
+    }
+
+    /**
+     * a growable byte buffer with encodings for the value types in responses, formatted the same as by the ObjectMapper
+     */
+    private static class Output {
+        private byte[] buf = new byte[INITIAL_CAPACITY];
+        private int len = 0;
+
+        /**
+         * @return the bytes written so far; the buffer is reused for the thread's next write
+         */
+        ByteString take () {
+            final var result = ByteString.fromArray(buf, 0, len);
+            if (buf.length > MAX_POOLED_CAPACITY)
+                buf = new byte[INITIAL_CAPACITY];
+            return result;
+        }
+
+        private void ensure (int n) {
+            if (len + n > buf.length) {
+                final var newBuf = new byte[Math.max(buf.length * 2, len + n)];
+                System.arraycopy(buf, 0, newBuf, 0, len);
+                buf = newBuf;
+            }
+        }
+
+        void raw (byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+        }
+
+        void ascii (char ch) {
+            ensure(1);
+            buf[len++] = (byte) ch;
+        }
+
+        void bool (boolean b) {
+            raw(b ? TRUE : FALSE);
+        }
+
+        void number (long l) {
+            if (l == Long.MIN_VALUE) {
+                raw(JsonWriters.ascii(String.valueOf(l)));
+                return;
+            }
+            ensure(20);
+            if (l < 0) {
+                buf[len++] = '-';
+                l = -l;
+            }
+            digits(l);
+        }
+
+        /**
+         * the decimal digits of a non-negative number
+         */
+        private void digits (long l) {
+            int numDigits = 1;
+            for (long rest = l / 10; rest != 0; rest /= 10)
+                numDigits++;
+            ensure(numDigits);
+            for (int i = len + numDigits - 1; i >= len; i--) {
+                buf[i] = (byte) ('0' + l % 10);
+                l /= 10;
+            }
+            len += numDigits;
+        }
+
+        private void digits (int i, int numDigits) {
+            ensure(numDigits);
+            for (int p = len + numDigits - 1; p >= len; p--) {
+                buf[p] = (byte) ('0' + i % 10);
+                i /= 10;
+            }
+            len += numDigits;
+        }
+
+        /**
+         * a plain decimal number with {@link Money#SCALE} fractional digits, same as the amount's BigDecimal
+         */
+        void money (Money amount) {
+            final long minorUnits = amount.minorUnits();
+            ensure(24);
+            if (minorUnits < 0) buf[len++] = '-';
+            digits(Math.abs(minorUnits / Money.FACTOR));
+            buf[len++] = '.';
+            digits((int) Math.abs(minorUnits % Money.FACTOR), Money.SCALE);
+        }
+
+        void uuid (UUID uuid) {
+            ensure(38);
+            buf[len++] = '"';
+            hex(uuid.getMostSignificantBits() >>> 32, 8);
+            buf[len++] = '-';
+            hex(uuid.getMostSignificantBits() >>> 16, 4);
+            buf[len++] = '-';
+            hex(uuid.getMostSignificantBits(), 4);
+            buf[len++] = '-';
+            hex(uuid.getLeastSignificantBits() >>> 48, 4);
+            buf[len++] = '-';
+            hex(uuid.getLeastSignificantBits(), 12);
+            buf[len++] = '"';
+        }
+
+        private void hex (long bits, int numDigits) {
+            for (int i = len + numDigits - 1; i >= len; i--) {
+                buf[i] = HEX[(int) bits & 0xf];
+                bits >>>= 4;
+            }
+            len += numDigits;
+        }
+
+        /**
+         * ISO-8601 in UTC with the fraction of a second in groups of three digits, same as {@link Instant#toString}
+         */
+        void instant (Instant instant) {
+            final long epochSecond = instant.getEpochSecond();
+            final long days = Math.floorDiv(epochSecond, 86400);
+            final int secondOfDay = (int) Math.floorMod(epochSecond, 86400);
+
+            // civil date from days since the epoch, see http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+            final long z = days + 719468;
+            final long era = Math.floorDiv(z, 146097);
+            final long dayOfEra = z - era * 146097;
+            final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+            final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            final long mp = (5 * dayOfYear + 2) / 153;
+            final int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+            final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+            final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+            if (year < 0 || year > 9999) {
+                string(instant.toString());
+                return;
+            }
+
+            ensure(32);
+            buf[len++] = '"';
+            digits((int) year, 4);
+            buf[len++] = '-';
+            digits(month, 2);
+            buf[len++] = '-';
+            digits(day, 2);
+            buf[len++] = 'T';
+            digits(secondOfDay / 3600, 2);
+            buf[len++] = ':';
+            digits(secondOfDay / 60 % 60, 2);
+            buf[len++] = ':';
+            digits(secondOfDay % 60, 2);
+
+            final int nanos = instant.getNano();
+            if (nanos != 0) {
+                buf[len++] = '.';
+                if (nanos % 1_000_000 == 0)
+                    digits(nanos / 1_000_000, 3);
+                else if (nanos % 1000 == 0)
+                    digits(nanos / 1000, 6);
+                else
+                    digits(nanos, 9);
+            }
+            buf[len++] = 'Z';
+            buf[len++] = '"';
+        }
+
+        /**
+         * a quoted string in UTF-8, escaping like the ObjectMapper: short escapes where JSON has them, and \\uXXXX for
+         *  other control characters and for each half of a surrogate pair
+         */
+        void string (String s) {
+            // a character takes at most six bytes as an escape, and at most three in UTF-8
+            ensure(s.length() * 6 + 2);
+            buf[len++] = '"';
+            for (int i=0; i<s.length(); i++) {
+                final char ch = s.charAt(i);
+                if (ch >= 0x20 && ch < 0x80 && ch != '"' && ch != '\\')
+                    buf[len++] = (byte) ch;
+                else if (ch < 0x80)
+                    escape(ch);
+                else if (ch < 0x800) {
+                    buf[len++] = (byte) (0xc0 | (ch >> 6));
+                    buf[len++] = (byte) (0x80 | (ch & 0x3f));
+                }
+                else if (Character.isSurrogate(ch))
+                    unicodeEscape(ch);
+                else {
+                    buf[len++] = (byte) (0xe0 | (ch >> 12));
+                    buf[len++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                    buf[len++] = (byte) (0x80 | (ch & 0x3f));
+                }
+            }
+            buf[len++] = '"';
+        }
+
+        private void escape (char ch) {
+            buf[len++] = '\\';
+            switch (ch) {
+                case '"':  buf[len++] = '"'; break;
+                case '\\': buf[len++] = '\\'; break;
+                case '\b': buf[len++] = 'b'; break;
+                case '\t': buf[len++] = 't'; break;
+                case '\n': buf[len++] = 'n'; break;
+                case '\f': buf[len++] = 'f'; break;
+                case '\r': buf[len++] = 'r'; break;
+                default:
+                    len--;
+                    unicodeEscape(ch);
+            }
+        }
+
+        private void unicodeEscape (char ch) {
+            buf[len++] = '\\';
+            buf[len++] = 'u';
+            buf[len++] = HEX_UPPER[ch >> 12];
+            buf[len++] = HEX_UPPER[(ch >> 8) & 0xf];
+            buf[len++] = HEX_UPPER[(ch >> 4) & 0xf];
+            buf[len++] = HEX_UPPER[ch & 0xf];
+        }
+    }
+
+    private static byte[] ascii (String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -1,23 +1,28 @@
 package de.arnohaase.corebanking;
 
-import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import de.arnohaase.corebanking.accounts.Accounts;
+import de.arnohaase.corebanking.batch.EndOfDayJob;
+import de.arnohaase.corebanking.warmup.AccountWarmUp;
 import de.arnohaase.corebanking.watchdog.TransferWatchDog;
 
-import java.util.concurrent.atomic.AtomicReference;
-
 
 public class Main {
     public static void main (String[] args) {
-        final var system = ActorSystem.create("core-banking");
+        start(ActorSystem.create("core-banking"));
+    }
 
-        final var transferWatchDog = new AtomicReference<ActorRef>();
-        final var accounts = system.actorOf(Accounts.props(transferWatchDog), "accounts");
-        transferWatchDog.set(system.actorOf(TransferWatchDog.props(accounts), "transfer-watchdog"));
+    /**
+     * starts a node's actors and its HTTP server in an actor system that was configured as a cluster node
+     */
+    public static void start (ActorSystem system) {
+        final var transferWatchDog = system.actorOf(TransferWatchDog.props(), "transfer-watchdog");
+        final var accounts = Accounts.start(system, transferWatchDog);
+        final var endOfDay = EndOfDayJob.start(system, accounts);
+        final var warmUp = AccountWarmUp.start(system, accounts);
 
         final String host = system.settings().config().getString("core-banking.http-server.host");
         final int port = system.settings().config().getInt("core-banking.http-server.port");
-        system.actorOf(HttpServer.props(host, port, accounts));
+        system.actorOf(HttpServer.props(host, port, accounts, endOfDay, warmUp));
     }
 }
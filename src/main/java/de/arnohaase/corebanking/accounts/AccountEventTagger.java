@@ -0,0 +1,54 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.persistence.journal.Tagged;
+import akka.persistence.journal.WriteEventAdapter;
+
+import java.util.Set;
+import java.util.UUID;
+
+
+/**
+ * Tags all of an account's events so read models can consume them through Persistence Query's eventsByTag. Every
+ *  event an account persists is tagged, so a read model sees each account's sequence numbers without gaps.
+ *
+ * The tag is one of 'tag-shards' tags, chosen by the account id, so a read model can consume the events in parallel
+ *  streams.
+ */
+public class AccountEventTagger implements WriteEventAdapter {
+    private final Set<String>[] tags;
+
+    @SuppressWarnings("unchecked")
+    public AccountEventTagger (ExtendedActorSystem system) {
+        tags = new Set[numShards(system)];
+        for (int i=0; i<tags.length; i++)
+            tags[i] = Set.of(tag(i));
+    }
+
+    static int numShards (ActorSystem system) {
+        return system.settings().config().getInt("core-banking.accounts.tag-shards");
+    }
+
+    public static String tag (int shard) {
+        return "account-" + shard;
+    }
+
+    public static int shard (UUID accountId, int numShards) {
+        return (int) Math.floorMod(accountId.getLeastSignificantBits(), (long) numShards);
+    }
+
+    @Override public String manifest (Object event) {
+        return "";
+    }
+
+    @Override public Object toJournal (Object event) {
+        if (isAccountEvent(event))
+            return new Tagged(event, tags[shard(((AccountMessages.WithEntityId) event).entityId(), tags.length)]);
+        return event;
+    }
+
+    static boolean isAccountEvent (Object event) {
+        return event instanceof AccountMessages.CreateAccount || AccountJournal.isJournalEntry(event);
+    }
+}
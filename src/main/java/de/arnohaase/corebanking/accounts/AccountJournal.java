@@ -0,0 +1,67 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.javadsl.CurrentEventsByPersistenceIdQuery;
+import akka.persistence.query.javadsl.EventsByPersistenceIdQuery;
+import akka.stream.javadsl.Source;
+
+import java.util.UUID;
+
+
+/**
+ * Read access to an account's journal entries through Akka Persistence Query, i.e. without going through the
+ *  account's entity.
+ */
+public class AccountJournal {
+    private final CurrentEventsByPersistenceIdQuery currentQuery;
+    private final EventsByPersistenceIdQuery liveQuery;
+
+    public AccountJournal (ActorSystem system) {
+        final var readJournalId = system.settings().config().getString("core-banking.read-journal");
+        final var persistenceQuery = PersistenceQuery.get(system);
+        this.currentQuery = persistenceQuery.getReadJournalFor(CurrentEventsByPersistenceIdQuery.class, readJournalId);
+        this.liveQuery = persistenceQuery.getReadJournalFor(EventsByPersistenceIdQuery.class, readJournalId);
+    }
+
+    /**
+     * journal entries starting at sequence number {@code fromSequenceNr}. If {@code follow} is set, the stream does not
+     *  complete but continues with entries as they are written.
+     */
+    public Source<EventEnvelope, NotUsed> entries (UUID accountId, long fromSequenceNr, long limit, boolean follow) {
+        final var persistenceId = AccountEntity.persistenceId(accountId);
+        final var events = follow
+                ? liveQuery.eventsByPersistenceId(persistenceId, fromSequenceNr, Long.MAX_VALUE)
+                : currentQuery.currentEventsByPersistenceId(persistenceId, fromSequenceNr, Long.MAX_VALUE);
+
+        return events
+                .filter(env -> isJournalEntry(env.event()))
+                .take(limit);
+    }
+
+    /**
+     * all of the account's events starting at sequence number {@code fromSequenceNr}, up to those written so far
+     */
+    public Source<EventEnvelope, NotUsed> events (UUID accountId, long fromSequenceNr) {
+        return currentQuery.currentEventsByPersistenceId(AccountEntity.persistenceId(accountId), fromSequenceNr, Long.MAX_VALUE);
+    }
+
+    /**
+     * the journal entries among the last {@code n} events up to sequence number {@code toSequenceNr}
+     */
+    public Source<EventEnvelope, NotUsed> entriesUpTo (UUID accountId, long toSequenceNr, int n) {
+        return currentQuery.currentEventsByPersistenceId(AccountEntity.persistenceId(accountId), Math.max(1, toSequenceNr - n + 1), toSequenceNr)
+                .filter(env -> isJournalEntry(env.event()));
+    }
+
+    public static boolean isJournalEntry (Object event) {
+        return event instanceof AccountMessages.Deposit ||
+                event instanceof AccountMessages.Withdraw ||
+                event instanceof AccountMessages.Posting ||
+                event instanceof AccountMessages.TransferCommand ||
+                event instanceof AccountMessages.ReceivedTransfer ||
+                event instanceof AccountMessages.TransferAckForSender;
+    }
+}
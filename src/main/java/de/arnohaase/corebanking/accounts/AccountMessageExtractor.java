@@ -0,0 +1,77 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.cluster.sharding.ShardRegion;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+
+/**
+ * Shard ids are derived from the account id's bits and taken from a precomputed table, so routing a message to its
+ *  shard does not allocate. The entity id is the account id's string representation because it is used for the
+ *  entity's actor name and persistence id.
+ *
+ * Credits to a striped account go to one of its stripes: deposits are spread by timestamp, received transfers by
+ *  transfer id so that redeliveries reach the stripe that deduplicates them. Stripes are distributed over shards
+ *  independently of their account.
+ */
+class AccountMessageExtractor implements ShardRegion.MessageExtractor {
+    private final String[] shardIds;
+    private final Map<UUID, String[]> stripeEntityIds = new HashMap<>();
+
+    AccountMessageExtractor (int numShards, Map<UUID, Integer> stripedAccounts) {
+        this.shardIds = new String[numShards];
+        for (int i=0; i<numShards; i++) shardIds[i] = String.valueOf(i);
+
+        stripedAccounts.forEach((accountId, numStripes) -> {
+            final var entityIds = new String[numStripes];
+            for (int i=0; i<numStripes; i++) entityIds[i] = accountId.toString() + Accounts.STRIPE_SEPARATOR + i;
+            stripeEntityIds.put(accountId, entityIds);
+        });
+    }
+
+    @Override public String entityId (Object msg) {
+        if (! (msg instanceof AccountMessages.WithEntityId))
+            return null;
+
+        final var accountId = ((AccountMessages.WithEntityId) msg).entityId();
+        final int stripe = stripe(msg);
+        return stripe < 0 ? accountId.toString() : stripeEntityIds.get(accountId)[stripe];
+    }
+
+    @Override public Object entityMessage (Object msg) {
+        return msg;
+    }
+
+    @Override public String shardId (Object msg) {
+        if (! (msg instanceof AccountMessages.WithEntityId))
+            return null;
+
+        final var accountId = ((AccountMessages.WithEntityId) msg).entityId();
+        final long bits = accountId.getMostSignificantBits() ^ accountId.getLeastSignificantBits();
+        final int stripe = stripe(msg);
+        return shardIds[Math.floorMod(Long.hashCode(bits) + 31 * (stripe + 1), shardIds.length)];
+    }
+
+    /**
+     * @return the index of the stripe a message goes to, or -1 if it goes to the account itself
+     */
+    private int stripe (Object msg) {
+        final var stripes = stripeEntityIds.get(((AccountMessages.WithEntityId) msg).entityId());
+        if (stripes == null)
+            return -1;
+
+        if (msg instanceof AccountMessages.GetStripe)
+            return ((AccountMessages.GetStripe) msg).stripe();
+        if (msg instanceof AccountMessages.Deposit) {
+            // timestamps often have microsecond or millisecond resolution, so their low bits need mixing
+            final var timestamp = ((AccountMessages.Deposit) msg).timestamp();
+            final long mixed = (timestamp.getEpochSecond() * 1_000_000_000L + timestamp.getNano()) * 0x9E3779B97F4A7C15L;
+            return (int) ((mixed >>> 32) % stripes.length);
+        }
+        if (msg instanceof AccountMessages.ReceivedTransfer)
+            return Math.floorMod(((AccountMessages.ReceivedTransfer) msg).transferId().hashCode(), stripes.length);
+        return -1;
+    }
+}
@@ -1,10 +1,10 @@
 package de.arnohaase.corebanking.accounts;
 
+import akka.persistence.AtLeastOnceDelivery;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import org.immutables.value.Value;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.List;
 import java.util.UUID;
@@ -32,7 +32,7 @@ public class AccountMessages {
     @Value.Immutable
     public interface Deposit extends WithEntityId {
         default String getKind() { return "deposit"; }
-        @Value.Parameter BigDecimal amount();
+        @Value.Parameter Money amount();
         @Value.Parameter Instant timestamp();
     }
 
@@ -40,7 +40,7 @@ public class AccountMessages {
     @Value.Immutable
     public interface Withdraw extends WithEntityId {
         default String getKind() { return "withdrawal"; }
-        @Value.Parameter BigDecimal amount();
+        @Value.Parameter Money amount();
         @Value.Parameter Instant timestamp();
     }
 
@@ -48,12 +48,31 @@ public class AccountMessages {
     @Value.Immutable
     public interface Get extends WithEntityId {
     }
+    @Value.Immutable
+    public interface GetStripe extends WithEntityId {
+        @Value.Parameter int stripe();
+    }
+
+    /**
+     * starts and recovers an account's entity without counting as a use of the account; the reply is {@link OK}
+     */
+    @Value.Immutable
+    public interface WarmUp extends WithEntityId {
+    }
 
     @JsonSerialize
     @Value.Immutable
     public interface GetResponse extends WithEntityId {
-        @Value.Parameter BigDecimal balance();
-        @Value.Parameter List<Object> journal();
+        @Value.Parameter Money balance();
+        // sequence number of the last event included in the balance
+        @Value.Parameter long sequenceNr();
+    }
+
+    @JsonSerialize
+    @Value.Immutable
+    public interface JournalEntry {
+        @Value.Parameter long sequenceNr();
+        @Value.Parameter Object entry();
     }
 
     @JsonSerialize
@@ -62,7 +81,7 @@ public class AccountMessages {
         default String getKind() { return "transfer"; }
         @Value.Parameter UUID transferId();
         @Value.Parameter boolean isWatched();
-        @Value.Parameter BigDecimal amount();
+        @Value.Parameter Money amount();
         @Value.Parameter UUID targetAccount();
         @Value.Parameter Instant timestamp();
     }
@@ -72,7 +91,7 @@ public class AccountMessages {
         default String getKind() { return "received-transfer"; }
         @Value.Parameter long deliveryId();
         @Value.Parameter UUID transferId();
-        @Value.Parameter BigDecimal amount();
+        @Value.Parameter Money amount();
         @Value.Parameter UUID sourceAccount();
         @Value.Parameter Instant timestamp();
     }
@@ -82,11 +101,15 @@ public class AccountMessages {
         default String getKind() { return "transfer-ack"; }
         @Value.Parameter long deliveryId();
         @Value.Parameter UUID transferId();
-        @Value.Parameter BigDecimal amount();
+        @Value.Parameter Money amount();
         @Value.Parameter boolean accepted();
         @Value.Parameter Instant timestamp();
     }
 
+    /**
+     * pings a watched transfer's source account; a ping with the account's own id as transfer id is for the account's
+     *  watch, see {@link WatchAccount}
+     */
     @JsonSerialize
     @Value.Immutable
     public interface TransferPing extends WithEntityId {
@@ -97,4 +120,66 @@ public class AccountMessages {
     public interface TransferPingCancellation extends Serializable {
         @Value.Parameter UUID transferId();
     }
+
+    /**
+     * registers an account with the watchdog for all of its transfers; the watchdog replies with the message itself
+     *  once the watch is written, and cancels it with a {@link TransferPingCancellation} for the account's id
+     */
+    @Value.Immutable
+    public interface WatchAccount extends WithEntityId {
+    }
+
+    @Value.Immutable
+    public interface BulkCommand extends WithEntityId {
+        @Value.Parameter List<WithEntityId> commands();
+    }
+    @JsonSerialize
+    @Value.Immutable
+    public interface BulkItemResult extends Serializable {
+        @Value.Parameter boolean accepted();
+        @Value.Parameter String reason();
+    }
+    @Value.Immutable
+    public interface BulkResponse extends WithEntityId {
+        @Value.Parameter List<BulkItemResult> results();
+    }
+
+    /**
+     * interest and fee posted to an account by the end-of-day job. The posting id is derived from the account and the
+     *  business date, and the account writes a posting id only once, so a job that is resumed or retried can send a
+     *  posting again. The fee is charged if the balance covers it after the interest; the written event holds the fee
+     *  that was actually charged.
+     */
+    @JsonSerialize
+    @Value.Immutable
+    public interface Posting extends WithEntityId {
+        default String getKind() { return "posting"; }
+        @Value.Parameter UUID postingId();
+        @Value.Parameter Money interest();
+        @Value.Parameter Money fee();
+        @Value.Parameter Instant timestamp();
+    }
+    /**
+     * the reply to a {@link Posting}: the fee that was charged, or that a posting with the same id was written before
+     */
+    @Value.Immutable
+    public interface PostingResponse extends WithEntityId {
+        @Value.Parameter boolean alreadyPosted();
+        @Value.Parameter Money fee();
+    }
+
+    @Value.Immutable
+    public interface AccountSnapshot extends Serializable {
+        @Value.Parameter boolean isCreated();
+        @Value.Parameter Money balance();
+        @Value.Parameter List<UUID> receivedTransferIds();
+        @Value.Parameter List<UUID> ackedTransferIds();
+        @Value.Parameter List<UUID> postingIds();
+        @Value.Parameter AtLeastOnceDelivery.AtLeastOnceDeliverySnapshot deliveries();
+    }
+
+    @Value.Immutable
+    public interface WatchDogSnapshot extends Serializable {
+        @Value.Parameter List<TransferPing> pings();
+    }
 }
@@ -0,0 +1,488 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorPath;
+import akka.actor.ActorPaths;
+import akka.actor.ExtendedActorSystem;
+import akka.persistence.AtLeastOnceDelivery;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.SerializerWithStringManifest;
+import scala.collection.JavaConverters;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+
+/**
+ * Compact binary encoding for {@link AccountMessages}. The manifest identifies both the message type and the
+ *  version of its encoding, so a changed encoding gets a new manifest while the old one stays readable.
+ *  Events written by the JavaSerializer carry its serializer id and continue to be read by it.
+ */
+public class AccountMessagesSerializer extends SerializerWithStringManifest {
+    private static final String NEW = "N1";
+    private static final String OK = "OK1";
+    private static final String CREATE_ACCOUNT = "CA1";
+    private static final String DEPOSIT = "D2";
+    private static final String WITHDRAW = "W2";
+    private static final String GET = "G1";
+    private static final String GET_STRIPE = "GS1";
+    private static final String WARM_UP = "WU1";
+    private static final String GET_RESPONSE = "GR4";
+    private static final String TRANSFER_COMMAND = "TC2";
+    private static final String RECEIVED_TRANSFER = "RT2";
+    private static final String TRANSFER_ACK = "TA2";
+    private static final String TRANSFER_PING = "TP1";
+    private static final String TRANSFER_PING_CANCELLATION = "TPC1";
+    private static final String WATCH_ACCOUNT = "WA1";
+    private static final String BULK_COMMAND = "BC1";
+    private static final String BULK_RESPONSE = "BR1";
+    private static final String POSTING = "P1";
+    private static final String POSTING_RESPONSE = "PR1";
+    private static final String ACCOUNT_SNAPSHOT = "AS4";
+    private static final String WATCHDOG_SNAPSHOT = "WS1";
+
+    // version 1 encoded amounts as BigDecimal
+    private static final String DEPOSIT_V1 = "D1";
+    private static final String WITHDRAW_V1 = "W1";
+    private static final String TRANSFER_COMMAND_V1 = "TC1";
+    private static final String RECEIVED_TRANSFER_V1 = "RT1";
+    private static final String TRANSFER_ACK_V1 = "TA1";
+    private static final String ACCOUNT_SNAPSHOT_V1 = "AS1";
+    private static final Set<String> BIG_DECIMAL_MANIFESTS = Set.of(DEPOSIT_V1, WITHDRAW_V1, TRANSFER_COMMAND_V1, RECEIVED_TRANSFER_V1, TRANSFER_ACK_V1, ACCOUNT_SNAPSHOT_V1);
+
+    // version 2 snapshots contained the account's journal
+    private static final String ACCOUNT_SNAPSHOT_V2 = "AS2";
+    // version 3 snapshots had no posting ids
+    private static final String ACCOUNT_SNAPSHOT_V3 = "AS3";
+
+    private final ExtendedActorSystem system;
+    private volatile Serialization serialization;
+
+    public AccountMessagesSerializer (ExtendedActorSystem system) {
+        this.system = system;
+    }
+
+    @Override public int identifier () {
+        return 4711;
+    }
+
+    @Override public String manifest (Object o) {
+        if (o instanceof AccountMessages.New) return NEW;
+        if (o instanceof AccountMessages.OK) return OK;
+        if (o instanceof AccountMessages.CreateAccount) return CREATE_ACCOUNT;
+        if (o instanceof AccountMessages.Deposit) return DEPOSIT;
+        if (o instanceof AccountMessages.Withdraw) return WITHDRAW;
+        if (o instanceof AccountMessages.Get) return GET;
+        if (o instanceof AccountMessages.GetStripe) return GET_STRIPE;
+        if (o instanceof AccountMessages.WarmUp) return WARM_UP;
+        if (o instanceof AccountMessages.GetResponse) return GET_RESPONSE;
+        if (o instanceof AccountMessages.TransferCommand) return TRANSFER_COMMAND;
+        if (o instanceof AccountMessages.ReceivedTransfer) return RECEIVED_TRANSFER;
+        if (o instanceof AccountMessages.TransferAckForSender) return TRANSFER_ACK;
+        if (o instanceof AccountMessages.TransferPing) return TRANSFER_PING;
+        if (o instanceof AccountMessages.TransferPingCancellation) return TRANSFER_PING_CANCELLATION;
+        if (o instanceof AccountMessages.WatchAccount) return WATCH_ACCOUNT;
+        if (o instanceof AccountMessages.BulkCommand) return BULK_COMMAND;
+        if (o instanceof AccountMessages.BulkResponse) return BULK_RESPONSE;
+        if (o instanceof AccountMessages.Posting) return POSTING;
+        if (o instanceof AccountMessages.PostingResponse) return POSTING_RESPONSE;
+        if (o instanceof AccountMessages.AccountSnapshot) return ACCOUNT_SNAPSHOT;
+        if (o instanceof AccountMessages.WatchDogSnapshot) return WATCHDOG_SNAPSHOT;
+        throw new IllegalArgumentException("cannot serialize " + o.getClass().getName());
+    }
+
+    @Override public byte[] toBinary (Object o) {
+        final var bytes = new ByteArrayOutputStream(64);
+        final var out = new DataOutputStream(bytes);
+        try {
+            write(o, out);
+        }
+        catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override public Object fromBinary (byte[] bytes, String manifest) throws NotSerializableException {
+        final var in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return read(manifest, in);
+        }
+        catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    private void write (Object o, DataOutputStream out) throws IOException {
+        if (o instanceof AccountMessages.New || o instanceof AccountMessages.OK) {
+            return;
+        }
+        if (o instanceof AccountMessages.CreateAccount) {
+            writeUuid(((AccountMessages.CreateAccount) o).entityId(), out);
+        }
+        else if (o instanceof AccountMessages.Deposit) {
+            final var msg = (AccountMessages.Deposit) o;
+            writeUuid(msg.entityId(), out);
+            writeMoney(msg.amount(), out);
+            writeInstant(msg.timestamp(), out);
+        }
+        else if (o instanceof AccountMessages.Withdraw) {
+            final var msg = (AccountMessages.Withdraw) o;
+            writeUuid(msg.entityId(), out);
+            writeMoney(msg.amount(), out);
+            writeInstant(msg.timestamp(), out);
+        }
+        else if (o instanceof AccountMessages.Get) {
+            writeUuid(((AccountMessages.Get) o).entityId(), out);
+        }
+        else if (o instanceof AccountMessages.GetStripe) {
+            final var msg = (AccountMessages.GetStripe) o;
+            writeUuid(msg.entityId(), out);
+            out.writeInt(msg.stripe());
+        }
+        else if (o instanceof AccountMessages.WarmUp) {
+            writeUuid(((AccountMessages.WarmUp) o).entityId(), out);
+        }
+        else if (o instanceof AccountMessages.GetResponse) {
+            final var msg = (AccountMessages.GetResponse) o;
+            writeUuid(msg.entityId(), out);
+            writeMoney(msg.balance(), out);
+            out.writeLong(msg.sequenceNr());
+        }
+        else if (o instanceof AccountMessages.TransferCommand) {
+            final var msg = (AccountMessages.TransferCommand) o;
+            writeUuid(msg.entityId(), out);
+            writeUuid(msg.transferId(), out);
+            out.writeBoolean(msg.isWatched());
+            writeMoney(msg.amount(), out);
+            writeUuid(msg.targetAccount(), out);
+            writeInstant(msg.timestamp(), out);
+        }
+        else if (o instanceof AccountMessages.ReceivedTransfer) {
+            final var msg = (AccountMessages.ReceivedTransfer) o;
+            writeUuid(msg.entityId(), out);
+            out.writeLong(msg.deliveryId());
+            writeUuid(msg.transferId(), out);
+            writeMoney(msg.amount(), out);
+            writeUuid(msg.sourceAccount(), out);
+            writeInstant(msg.timestamp(), out);
+        }
+        else if (o instanceof AccountMessages.TransferAckForSender) {
+            final var msg = (AccountMessages.TransferAckForSender) o;
+            writeUuid(msg.entityId(), out);
+            out.writeLong(msg.deliveryId());
+            writeUuid(msg.transferId(), out);
+            writeMoney(msg.amount(), out);
+            out.writeBoolean(msg.accepted());
+            writeInstant(msg.timestamp(), out);
+        }
+        else if (o instanceof AccountMessages.TransferPing) {
+            final var msg = (AccountMessages.TransferPing) o;
+            writeUuid(msg.entityId(), out);
+            writeUuid(msg.transferId(), out);
+        }
+        else if (o instanceof AccountMessages.TransferPingCancellation) {
+            writeUuid(((AccountMessages.TransferPingCancellation) o).transferId(), out);
+        }
+        else if (o instanceof AccountMessages.WatchAccount) {
+            writeUuid(((AccountMessages.WatchAccount) o).entityId(), out);
+        }
+        else if (o instanceof AccountMessages.BulkCommand) {
+            final var msg = (AccountMessages.BulkCommand) o;
+            writeUuid(msg.entityId(), out);
+            out.writeInt(msg.commands().size());
+            for (Object cmd: msg.commands()) writeObject(cmd, out);
+        }
+        else if (o instanceof AccountMessages.BulkResponse) {
+            final var msg = (AccountMessages.BulkResponse) o;
+            writeUuid(msg.entityId(), out);
+            out.writeInt(msg.results().size());
+            for (AccountMessages.BulkItemResult result: msg.results()) {
+                out.writeBoolean(result.accepted());
+                out.writeUTF(result.reason());
+            }
+        }
+        else if (o instanceof AccountMessages.Posting) {
+            final var msg = (AccountMessages.Posting) o;
+            writeUuid(msg.entityId(), out);
+            writeUuid(msg.postingId(), out);
+            writeMoney(msg.interest(), out);
+            writeMoney(msg.fee(), out);
+            writeInstant(msg.timestamp(), out);
+        }
+        else if (o instanceof AccountMessages.PostingResponse) {
+            final var msg = (AccountMessages.PostingResponse) o;
+            writeUuid(msg.entityId(), out);
+            out.writeBoolean(msg.alreadyPosted());
+            writeMoney(msg.fee(), out);
+        }
+        else if (o instanceof AccountMessages.AccountSnapshot) {
+            final var msg = (AccountMessages.AccountSnapshot) o;
+            out.writeBoolean(msg.isCreated());
+            writeMoney(msg.balance(), out);
+            writeUuids(msg.receivedTransferIds(), out);
+            writeUuids(msg.ackedTransferIds(), out);
+            writeUuids(msg.postingIds(), out);
+            writeDeliveries(msg.deliveries(), out);
+        }
+        else if (o instanceof AccountMessages.WatchDogSnapshot) {
+            final var msg = (AccountMessages.WatchDogSnapshot) o;
+            out.writeInt(msg.pings().size());
+            for (AccountMessages.TransferPing ping: msg.pings()) {
+                writeUuid(ping.entityId(), out);
+                writeUuid(ping.transferId(), out);
+            }
+        }
+        else {
+            throw new IllegalArgumentException("cannot serialize " + o.getClass().getName());
+        }
+    }
+
+    private Object read (String manifest, DataInputStream in) throws IOException, NotSerializableException {
+        final boolean legacy = BIG_DECIMAL_MANIFESTS.contains(manifest);
+
+        switch (manifest) {
+            case NEW:
+                return new AccountMessages.New();
+            case OK:
+                return new AccountMessages.OK();
+            case CREATE_ACCOUNT:
+                return ImmutableCreateAccount.of(readUuid(in));
+            case DEPOSIT_V1:
+            case DEPOSIT: {
+                final var entityId = readUuid(in);
+                return ImmutableDeposit.of(readMoney(in, legacy), readInstant(in), entityId);
+            }
+            case WITHDRAW_V1:
+            case WITHDRAW: {
+                final var entityId = readUuid(in);
+                return ImmutableWithdraw.of(readMoney(in, legacy), readInstant(in), entityId);
+            }
+            case GET:
+                return ImmutableGet.of(readUuid(in));
+            case GET_STRIPE: {
+                final var entityId = readUuid(in);
+                return ImmutableGetStripe.of(in.readInt(), entityId);
+            }
+            case WARM_UP:
+                return ImmutableWarmUp.of(readUuid(in));
+            case GET_RESPONSE: {
+                final var entityId = readUuid(in);
+                return ImmutableGetResponse.of(readMoney(in, legacy), in.readLong(), entityId);
+            }
+            case TRANSFER_COMMAND_V1:
+            case TRANSFER_COMMAND: {
+                final var entityId = readUuid(in);
+                return ImmutableTransferCommand.of(readUuid(in), in.readBoolean(), readMoney(in, legacy), readUuid(in), readInstant(in), entityId);
+            }
+            case RECEIVED_TRANSFER_V1:
+            case RECEIVED_TRANSFER: {
+                final var entityId = readUuid(in);
+                return ImmutableReceivedTransfer.of(in.readLong(), readUuid(in), readMoney(in, legacy), readUuid(in), readInstant(in), entityId);
+            }
+            case TRANSFER_ACK_V1:
+            case TRANSFER_ACK: {
+                final var entityId = readUuid(in);
+                return ImmutableTransferAckForSender.of(in.readLong(), readUuid(in), readMoney(in, legacy), in.readBoolean(), readInstant(in), entityId);
+            }
+            case TRANSFER_PING: {
+                final var entityId = readUuid(in);
+                return ImmutableTransferPing.of(readUuid(in), entityId);
+            }
+            case TRANSFER_PING_CANCELLATION:
+                return ImmutableTransferPingCancellation.of(readUuid(in));
+            case WATCH_ACCOUNT:
+                return ImmutableWatchAccount.of(readUuid(in));
+            case BULK_COMMAND: {
+                final var entityId = readUuid(in);
+                final int size = in.readInt();
+                final var commands = new ArrayList<AccountMessages.WithEntityId>(size);
+                for (int i=0; i<size; i++) commands.add((AccountMessages.WithEntityId) readObject(in));
+                return ImmutableBulkCommand.of(commands, entityId);
+            }
+            case BULK_RESPONSE: {
+                final var entityId = readUuid(in);
+                final int size = in.readInt();
+                final var results = new ArrayList<AccountMessages.BulkItemResult>(size);
+                for (int i=0; i<size; i++) results.add(ImmutableBulkItemResult.of(in.readBoolean(), in.readUTF()));
+                return ImmutableBulkResponse.of(results, entityId);
+            }
+            case POSTING: {
+                final var entityId = readUuid(in);
+                return ImmutablePosting.of(readUuid(in), readMoney(in, legacy), readMoney(in, legacy), readInstant(in), entityId);
+            }
+            case POSTING_RESPONSE: {
+                final var entityId = readUuid(in);
+                return ImmutablePostingResponse.of(in.readBoolean(), readMoney(in, legacy), entityId);
+            }
+            case ACCOUNT_SNAPSHOT_V1:
+            case ACCOUNT_SNAPSHOT_V2:
+            case ACCOUNT_SNAPSHOT_V3:
+            case ACCOUNT_SNAPSHOT: {
+                final boolean isCreated = in.readBoolean();
+                final var balance = readMoney(in, legacy);
+                if (manifest.equals(ACCOUNT_SNAPSHOT_V1) || manifest.equals(ACCOUNT_SNAPSHOT_V2))
+                    readObjects(in);
+                final var receivedTransferIds = readUuids(in);
+                final var ackedTransferIds = readUuids(in);
+                final List<UUID> postingIds = manifest.equals(ACCOUNT_SNAPSHOT) ? readUuids(in) : List.of();
+                return ImmutableAccountSnapshot.of(isCreated, balance, receivedTransferIds, ackedTransferIds, postingIds, readDeliveries(in));
+            }
+            case WATCHDOG_SNAPSHOT: {
+                final int size = in.readInt();
+                final var pings = new ArrayList<AccountMessages.TransferPing>(size);
+                for (int i=0; i<size; i++) {
+                    final var entityId = readUuid(in);
+                    pings.add(ImmutableTransferPing.of(readUuid(in), entityId));
+                }
+                return ImmutableWatchDogSnapshot.of(pings);
+            }
+            default:
+                throw new NotSerializableException("unknown manifest " + manifest);
+        }
+    }
+
+    private static void writeUuid (UUID uuid, DataOutputStream out) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+    private static UUID readUuid (DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeUuids (List<UUID> uuids, DataOutputStream out) throws IOException {
+        out.writeInt(uuids.size());
+        for (UUID uuid: uuids) writeUuid(uuid, out);
+    }
+    private static List<UUID> readUuids (DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final var result = new ArrayList<UUID>(size);
+        for (int i=0; i<size; i++) result.add(readUuid(in));
+        return result;
+    }
+
+    /**
+     * minor units as a zig-zag encoded var-long, so typical amounts take two or three bytes
+     */
+    private static void writeMoney (Money value, DataOutputStream out) throws IOException {
+        final long units = value.minorUnits();
+        long zigZag = (units << 1) ^ (units >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.writeByte((int) zigZag);
+    }
+    private static Money readMoney (DataInputStream in, boolean legacy) throws IOException {
+        if (legacy)
+            return Money.ofLegacy(readBigDecimal(in));
+
+        long zigZag = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = in.readUnsignedByte();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        return Money.ofMinorUnits((zigZag >>> 1) ^ -(zigZag & 1));
+    }
+
+    private static BigDecimal readBigDecimal (DataInputStream in) throws IOException {
+        final int scale = in.readInt();
+        final byte[] unscaled = new byte[in.readUnsignedShort()];
+        in.readFully(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    private static void writeInstant (Instant instant, DataOutputStream out) throws IOException {
+        out.writeLong(instant.getEpochSecond());
+        out.writeInt(instant.getNano());
+    }
+    private static Instant readInstant (DataInputStream in) throws IOException {
+        return Instant.ofEpochSecond(in.readLong(), in.readInt());
+    }
+
+    private void writeDeliveries (AtLeastOnceDelivery.AtLeastOnceDeliverySnapshot snapshot, DataOutputStream out) throws IOException {
+        out.writeLong(snapshot.currentDeliveryId());
+        final var unconfirmed = snapshot.getUnconfirmedDeliveries();
+        out.writeInt(unconfirmed.size());
+        for (AtLeastOnceDelivery.UnconfirmedDelivery delivery: unconfirmed) {
+            out.writeLong(delivery.deliveryId());
+            out.writeUTF(delivery.destination().toSerializationFormat());
+            writeObject(delivery.message(), out);
+        }
+    }
+    private AtLeastOnceDelivery.AtLeastOnceDeliverySnapshot readDeliveries (DataInputStream in) throws IOException, NotSerializableException {
+        final long currentDeliveryId = in.readLong();
+        final int size = in.readInt();
+        final var unconfirmed = new ArrayList<AtLeastOnceDelivery.UnconfirmedDelivery>(size);
+        for (int i=0; i<size; i++) {
+            final long deliveryId = in.readLong();
+            final ActorPath destination = ActorPaths.fromString(in.readUTF());
+            unconfirmed.add(new AtLeastOnceDelivery.UnconfirmedDelivery(deliveryId, destination, readObject(in)));
+        }
+        return new AtLeastOnceDelivery.AtLeastOnceDeliverySnapshot(currentDeliveryId, JavaConverters.asScalaBuffer(unconfirmed).toList());
+    }
+
+    private List<Object> readObjects (DataInputStream in) throws IOException, NotSerializableException {
+        final int size = in.readInt();
+        final var result = new ArrayList<>(size);
+        for (int i=0; i<size; i++) result.add(readObject(in));
+        return result;
+    }
+
+    /**
+     * nested values of arbitrary type: messages of our own are written inline, everything else goes through Akka's
+     *  serialization with its serializer id
+     */
+    private void writeObject (Object o, DataOutputStream out) throws IOException {
+        final var ownManifest = isOwn(o) ? manifest(o) : null;
+        if (ownManifest != null) {
+            out.writeInt(identifier());
+            out.writeUTF(ownManifest);
+            write(o, out);
+            return;
+        }
+
+        final var serializer = serialization().findSerializerFor(o);
+        final String manifest;
+        if (serializer instanceof SerializerWithStringManifest)
+            manifest = ((SerializerWithStringManifest) serializer).manifest(o);
+        else
+            manifest = serializer.includeManifest() ? o.getClass().getName() : "";
+
+        final byte[] bytes = serializer.toBinary(o);
+        out.writeInt(serializer.identifier());
+        out.writeUTF(manifest);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    private Object readObject (DataInputStream in) throws IOException, NotSerializableException {
+        final int serializerId = in.readInt();
+        final String manifest = in.readUTF();
+        if (serializerId == identifier())
+            return read(manifest, in);
+
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return serialization().deserialize(bytes, serializerId, manifest).get();
+    }
+
+    private static boolean isOwn (Object o) {
+        return o instanceof AccountMessages.WithEntityId ||
+                o instanceof AccountMessages.TransferPingCancellation ||
+                o instanceof AccountMessages.AccountSnapshot ||
+                o instanceof AccountMessages.WatchDogSnapshot;
+    }
+
+    private Serialization serialization () {
+        if (serialization == null)
+            serialization = SerializationExtension.get(system);
+        return serialization;
+    }
+}
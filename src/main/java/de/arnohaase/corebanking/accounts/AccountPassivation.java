@@ -0,0 +1,78 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import de.arnohaase.corebanking.metrics.Metrics;
+
+
+/**
+ * A node's memory budget for account entities. Entities register with their estimated footprint whenever they handle
+ *  a command; when the budget is exceeded, the least recently used entities are asked to passivate.
+ */
+class AccountPassivation implements Extension {
+    static final String EVICT = "evict";
+
+    // rough estimates of heap usage: actor, mailbox and persistence internals, one transfer id in an index, and one
+    //  unconfirmed delivery
+    private static final long BYTES_PER_ENTITY = 4096;
+    private static final long BYTES_PER_TRANSFER_ID = 100;
+    private static final long BYTES_PER_DELIVERY = 400;
+
+    private static final Provider PROVIDER = new Provider();
+
+    static AccountPassivation get (ActorSystem system) {
+        return PROVIDER.get(system);
+    }
+
+    // footprints in KiB
+    private final Cache<ActorRef, Integer> entities;
+
+    private AccountPassivation (ActorSystem system) {
+        final long budgetBytes = system.settings().config().getBytes("core-banking.accounts.passivation.memory-budget");
+        this.entities = CacheBuilder.newBuilder()
+                .maximumWeight(budgetBytes / 1024)
+                .<ActorRef, Integer>weigher((entity, footprint) -> footprint)
+                .removalListener(n -> {
+                    if (n.getCause() == RemovalCause.SIZE)
+                        n.getKey().tell(EVICT, ActorRef.noSender());
+                })
+                .build();
+
+        Metrics.get(system).gauge("account_entities_active", entities::size);
+    }
+
+    static int footprint (int numTransferIds, int numDeliveries) {
+        final long bytes = BYTES_PER_ENTITY + numTransferIds * BYTES_PER_TRANSFER_ID + numDeliveries * BYTES_PER_DELIVERY;
+        return (int) Math.min(Integer.MAX_VALUE, bytes / 1024);
+    }
+
+    /**
+     * marks an entity as most recently used, registering it or updating its footprint if necessary
+     */
+    void touch (ActorRef entity, int footprint) {
+        final var registered = entities.getIfPresent(entity);
+        if (registered == null || registered != footprint)
+            entities.put(entity, footprint);
+    }
+
+    void remove (ActorRef entity) {
+        entities.invalidate(entity);
+    }
+
+    private static class Provider extends AbstractExtensionId<AccountPassivation> implements ExtensionIdProvider {
+        @Override public Provider lookup () {
+            return PROVIDER;
+        }
+
+        @Override public AccountPassivation createExtension (ExtendedActorSystem system) {
+            return new AccountPassivation(system);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.TimeBasedUUID;
+import akka.persistence.query.javadsl.EventsByTagQuery;
+import akka.stream.Materializer;
+import akka.stream.javadsl.RestartSource;
+import akka.stream.javadsl.Sink;
+import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.typesafe.config.Config;
+import de.arnohaase.corebanking.metrics.Metrics;
+import de.arnohaase.corebanking.metrics.StageTimer;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A node's read model of account balances and recent journal entries, held in a bounded cache.
+ *
+ * The views are a projection of the stream of all account events (see {@link AccountEventTagger}), so reads neither
+ *  wake up passivated accounts nor compete with writes in their mailboxes. There is a stream per tag, and the streams
+ *  start at the current time rather than replaying the history: an account's view is seeded on its first read by
+ *  replaying its events through the read journal, and kept up to date by the stream from then on.
+ *
+ * A read is served from the view while the projection lags behind the journal by at most 'max-staleness', measured
+ *  as the time between writing and projecting an event; it goes to the entity for consistency=strong, while the stream
+ *  of the account's tag is behind or restarting, for striped accounts, and to seed the views of accounts whose
+ *  journal does not hold their full history.
+ */
+public class AccountReadModel {
+    private static class View {
+        final long sequenceNr;
+        final long balance;
+        final List<AccountMessages.JournalEntry> recent;
+
+        View (long sequenceNr, long balance, List<AccountMessages.JournalEntry> recent) {
+            this.sequenceNr = sequenceNr;
+            this.balance = balance;
+            this.recent = recent;
+        }
+    }
+
+    private final ActorRef accounts;
+    private final AccountJournal journal;
+    private final EventsByTagQuery eventsByTag;
+    private final Materializer mat;
+    private final StageTimer askTimer;
+    private final Set<UUID> stripedAccounts;
+
+    private final Cache<UUID, View> views;
+    private final long maxStalenessMillis;
+    private final int numRecentEntries;
+    private final long askTimeoutMillis;
+
+    // the last offset of each tag's stream, to restart it from, and the stream's lag behind the journal
+    private final AtomicReferenceArray<Offset> offsets;
+    private final AtomicLongArray lagMillis;
+
+    public AccountReadModel (ActorSystem system, ActorRef accounts, AccountJournal journal, Materializer mat) {
+        this.accounts = accounts;
+        this.journal = journal;
+        this.mat = mat;
+        this.askTimer = Metrics.get(system).stageTimer("read_model_ask");
+        this.stripedAccounts = Accounts.stripedAccounts(system.settings().config()).keySet();
+
+        final var readJournalId = system.settings().config().getString("core-banking.read-journal");
+        this.eventsByTag = PersistenceQuery.get(system).getReadJournalFor(EventsByTagQuery.class, readJournalId);
+
+        final Config config = system.settings().config().getConfig("core-banking.read-model");
+        this.views = CacheBuilder.newBuilder().maximumSize(config.getLong("max-accounts")).build();
+        this.maxStalenessMillis = config.getDuration("max-staleness").toMillis();
+        this.numRecentEntries = config.getInt("recent-entries");
+        this.askTimeoutMillis = config.getDuration("ask-timeout").toMillis();
+        this.offsets = new AtomicReferenceArray<>(AccountEventTagger.numShards(system));
+        this.lagMillis = new AtomicLongArray(offsets.length());
+    }
+
+    /**
+     * starts consuming the event streams from now, restarting each from its last offset if it fails
+     */
+    public void start () {
+        final var now = Offset.timeBasedUUID(UUIDs.startOf(System.currentTimeMillis()));
+        for (int i=0; i<offsets.length(); i++) {
+            final int shard = i;
+            final var isRestart = new AtomicBoolean();
+            offsets.set(shard, now);
+            RestartSource.withBackoff(FiniteDuration.apply(1, TimeUnit.SECONDS), FiniteDuration.apply(30, TimeUnit.SECONDS), 0.2,
+                    () -> {
+                        // a restarted stream's lag is unknown until it projects an event
+                        if (isRestart.getAndSet(true))
+                            lagMillis.set(shard, Long.MAX_VALUE);
+                        return eventsByTag.eventsByTag(AccountEventTagger.tag(shard), offsets.get(shard));
+                    })
+                    .runWith(Sink.foreach(env -> {
+                        offsets.set(shard, env.offset());
+                        apply(shard, env);
+                    }), mat);
+        }
+    }
+
+    private void apply (int shard, EventEnvelope env) {
+        final long writtenAtMillis = writtenAtMillis(env);
+        if (writtenAtMillis > 0)
+            lagMillis.set(shard, Math.max(0, System.currentTimeMillis() - writtenAtMillis));
+
+        // stripes' credits are not tracked, striped accounts are read from their entities
+        if (! AccountEventTagger.isAccountEvent(env.event()) || Accounts.isStripe(env.persistenceId()))
+            return;
+
+        final var event = (AccountMessages.WithEntityId) env.event();
+        views.asMap().computeIfPresent(event.entityId(), (id, view) -> applied(view, env.sequenceNr(), event));
+    }
+
+    /**
+     * the view with the event applied, or null if the view missed an event and must be seeded again
+     */
+    private View applied (View view, long sequenceNr, Object event) {
+        if (sequenceNr <= view.sequenceNr) return view;
+        if (sequenceNr > view.sequenceNr + 1) return null;
+
+        List<AccountMessages.JournalEntry> recent = view.recent;
+        if (AccountJournal.isJournalEntry(event)) {
+            recent = new ArrayList<>(recent.subList(Math.max(0, recent.size() - numRecentEntries + 1), recent.size()));
+            recent.add(ImmutableJournalEntry.of(sequenceNr, event));
+        }
+        return new View(sequenceNr, Math.addExact(view.balance, balanceChange(event)), recent);
+    }
+
+    /**
+     * when an event was written: the time of its offset where the read journal provides it, else the event's timestamp,
+     *  or 0 if it has none
+     */
+    private static long writtenAtMillis (EventEnvelope env) {
+        if (env.offset() instanceof TimeBasedUUID)
+            return UUIDs.unixTimestamp(((TimeBasedUUID) env.offset()).value());
+
+        final var event = env.event();
+        if (event instanceof AccountMessages.Deposit)
+            return ((AccountMessages.Deposit) event).timestamp().toEpochMilli();
+        if (event instanceof AccountMessages.Withdraw)
+            return ((AccountMessages.Withdraw) event).timestamp().toEpochMilli();
+        if (event instanceof AccountMessages.Posting)
+            return ((AccountMessages.Posting) event).timestamp().toEpochMilli();
+        if (event instanceof AccountMessages.TransferCommand)
+            return ((AccountMessages.TransferCommand) event).timestamp().toEpochMilli();
+        if (event instanceof AccountMessages.ReceivedTransfer)
+            return ((AccountMessages.ReceivedTransfer) event).timestamp().toEpochMilli();
+        if (event instanceof AccountMessages.TransferAckForSender)
+            return ((AccountMessages.TransferAckForSender) event).timestamp().toEpochMilli();
+        return 0;
+    }
+
+    /**
+     * the effect an event has on an account's balance, the same as in {@link AccountEntity}'s recovery
+     */
+    static long balanceChange (Object event) {
+        if (event instanceof AccountMessages.Deposit)
+            return ((AccountMessages.Deposit) event).amount().minorUnits();
+        if (event instanceof AccountMessages.Withdraw)
+            return -((AccountMessages.Withdraw) event).amount().minorUnits();
+        if (event instanceof AccountMessages.Posting)
+            return ((AccountMessages.Posting) event).interest().minorUnits() - ((AccountMessages.Posting) event).fee().minorUnits();
+        if (event instanceof AccountMessages.TransferCommand)
+            return -((AccountMessages.TransferCommand) event).amount().minorUnits();
+        if (event instanceof AccountMessages.ReceivedTransfer)
+            return ((AccountMessages.ReceivedTransfer) event).amount().minorUnits();
+        if (event instanceof AccountMessages.TransferAckForSender && ! ((AccountMessages.TransferAckForSender) event).accepted())
+            return ((AccountMessages.TransferAckForSender) event).amount().minorUnits();
+        return 0;
+    }
+
+    public CompletionStage<AccountMessages.GetResponse> balance (UUID accountId, boolean strong) {
+        if (strong)
+            return unwrapped(askBalance(accountId));
+
+        return unwrapped(view(accountId).thenApply(v -> ImmutableGetResponse.of(Money.ofMinorUnits(v.balance), v.sequenceNr, accountId)));
+    }
+
+    public CompletionStage<List<AccountMessages.JournalEntry>> recent (UUID accountId) {
+        return unwrapped(view(accountId).thenApply(v -> Collections.unmodifiableList(v.recent)));
+    }
+
+    private CompletionStage<View> view (UUID accountId) {
+        if (stripedAccounts.contains(accountId) || isBehind(accountId))
+            return entityView(accountId);
+
+        final var view = views.getIfPresent(accountId);
+        if (view != null)
+            return CompletableFuture.completedFuture(view);
+        return seed(accountId);
+    }
+
+    private boolean isBehind (UUID accountId) {
+        return lagMillis.get(AccountEventTagger.shard(accountId, lagMillis.length())) > maxStalenessMillis;
+    }
+
+    /**
+     * replays the account's events into a new view and caches it. Events the stream projects while the view is not yet
+     *  cached are replayed again afterwards. If the journal does not hold the account's history from its first event,
+     *  i.e. the account does not exist or its events were deleted after a snapshot, the view is seeded from the entity.
+     */
+    private CompletionStage<View> seed (UUID accountId) {
+        return replay(new View(0, 0, List.of()), accountId)
+                .thenCompose(replayed -> replayed.filter(v -> v.sequenceNr > 0)
+                        .<CompletionStage<View>>map(CompletableFuture::completedFuture)
+                        .orElseGet(() -> entityView(accountId)))
+                .thenCompose(seeded -> {
+                    final var cached = cache(accountId, seeded);
+                    return replay(cached, accountId).thenApply(caughtUp -> caughtUp.map(v -> cache(accountId, v)).orElse(cached));
+                });
+    }
+
+    /**
+     * the view with the account's events after its sequence number applied, up to those written so far, or empty if
+     *  the journal does not hold the next event
+     */
+    private CompletionStage<Optional<View>> replay (View view, UUID accountId) {
+        return journal.events(accountId, view.sequenceNr + 1)
+                .runWith(Sink.fold(Optional.of(view), (v, env) -> v.map(x -> applied(x, env.sequenceNr(), env.event()))), mat);
+    }
+
+    /**
+     * caches the view unless the stream has moved the cached view past it, and returns the cached view
+     */
+    private View cache (UUID accountId, View view) {
+        return views.asMap().merge(accountId, view, (cached, v) -> cached.sequenceNr >= v.sequenceNr ? cached : v);
+    }
+
+    private CompletionStage<AccountMessages.GetResponse> askBalance (UUID accountId) {
+        return askTimer.time(PatternsCS.ask(accounts, ImmutableGet.of(accountId), askTimeoutMillis))
+                .thenApply(response -> (AccountMessages.GetResponse) response);
+    }
+
+    /**
+     * a view of the account's balance as its entity has it, with the recent journal entries up to it
+     */
+    private CompletionStage<View> entityView (UUID accountId) {
+        return askBalance(accountId)
+                .thenCompose(response -> journal.entriesUpTo(accountId, response.sequenceNr(), numRecentEntries)
+                        .map(env -> (AccountMessages.JournalEntry) ImmutableJournalEntry.of(env.sequenceNr(), env.event()))
+                        .runWith(Sink.seq(), mat)
+                        .thenApply(recent -> new View(response.sequenceNr(), response.balance().minorUnits(), new ArrayList<>(recent))));
+    }
+
+    /**
+     * dependent stages fail with a CompletionException; the routes' exception handling needs the original exception
+     */
+    private static <T> CompletionStage<T> unwrapped (CompletionStage<T> f) {
+        final var result = new CompletableFuture<T>();
+        f.whenComplete((value, exc) -> {
+            if (exc == null)
+                result.complete(value);
+            else
+                result.completeExceptionally(exc instanceof CompletionException && exc.getCause() != null ? exc.getCause() : exc);
+        });
+        return result;
+    }
+}
@@ -1,49 +1,64 @@
 package de.arnohaase.corebanking.accounts;
 
-import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
-import akka.actor.Props;
+import akka.actor.ActorSystem;
 import akka.cluster.sharding.ClusterSharding;
 import akka.cluster.sharding.ClusterShardingSettings;
 import akka.cluster.sharding.ShardRegion;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigUtil;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicReference;
 
 
-public class Accounts extends AbstractActor {
-    public static Props props(AtomicReference<ActorRef> transferWatchDog) {
-        return Props.create(Accounts.class, () -> new Accounts(transferWatchDog));
-    }
+/**
+ * Cluster sharding for accounts. Clients send their messages to the shard region directly rather than through an
+ *  intermediate actor, so there is no single mailbox that all of a node's traffic passes through.
+ */
+public class Accounts {
+    public static final String TYPE_NAME = "accounts";
+
+    // separates account id and stripe index in a stripe's entity id; sharding URL-encodes entity ids for actor names,
+    //  so this must be a character that is not encoded
+    static final char STRIPE_SEPARATOR = '_';
 
-    private final AtomicReference<ActorRef> transferWatchDog;
-
-    private final ShardRegion.MessageExtractor messageExtractor = new ShardRegion.HashCodeMessageExtractor(1000) {
-        @Override public String entityId (Object message) {
-            return ((AccountMessages.WithEntityId) message).entityId().toString();
-        }
-    };
-    private final ActorRef shardRegion;
-
-    public Accounts (AtomicReference<ActorRef> transferWatchdog) {
-        this.transferWatchDog = transferWatchdog;
-        shardRegion = ClusterSharding.get(context().system()).start(
-                "accounts",
-                AccountEntity.props(self(), transferWatchDog.get()),
-                ClusterShardingSettings.create(context().system()),
-                messageExtractor
+    public static ActorRef start (ActorSystem system, ActorRef transferWatchDog) {
+        return ClusterSharding.get(system).start(
+                TYPE_NAME,
+                AccountEntity.props(transferWatchDog),
+                ClusterShardingSettings.create(system),
+                messageExtractor(system.settings().config())
         );
     }
 
-    @Override public Receive createReceive () {
-        return receiveBuilder()
-                .match(AccountMessages.New.class, this::onNew)
-                .match(AccountMessages.WithEntityId.class, msg -> shardRegion.forward(msg, context()))
-                .build();
+    /**
+     * the shard region's mapping of messages to entities and shards, e.g. for grouping messages by shard
+     */
+    public static ShardRegion.MessageExtractor messageExtractor (Config config) {
+        return new AccountMessageExtractor(config.getInt("core-banking.accounts.shards"), stripedAccounts(config));
+    }
+
+    /**
+     * the shard region on this node, which must have been started before
+     */
+    public static ActorRef shardRegion (ActorSystem system) {
+        return ClusterSharding.get(system).shardRegion(TYPE_NAME);
+    }
+
+    /**
+     * striped accounts and their number of stripes, see core-banking.accounts.striped-accounts
+     */
+    static Map<UUID, Integer> stripedAccounts (Config config) {
+        final var striped = config.getConfig("core-banking.accounts.striped-accounts");
+        final var result = new HashMap<UUID, Integer>();
+        for (String key: striped.root().keySet())
+            result.put(UUID.fromString(key), striped.getInt(ConfigUtil.joinPath(key)));
+        return result;
     }
 
-    private void onNew(Object msg) {
-        final UUID entityId = UUID.randomUUID();
-        self().forward(ImmutableCreateAccount.of(entityId), context());
+    static boolean isStripe (String persistenceId) {
+        return persistenceId.indexOf(STRIPE_SEPARATOR) >= 0;
     }
 }
@@ -0,0 +1,108 @@
+package de.arnohaase.corebanking.accounts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+
+/**
+ * The serialized form of events that were written by the JavaSerializer while amounts were BigDecimal. Their classes
+ *  have the same names as today's events but different fields, so {@link LegacyJavaSerializer} reads them into the
+ *  classes here, and each of them resolves to today's event.
+ *
+ * The fields must be exactly those of the original classes, which were generated by Immutables.
+ */
+class LegacyEvents {
+    private static final Logger log = LoggerFactory.getLogger(LegacyEvents.class);
+
+    /**
+     * the original classes' names, and the classes that read their serialized form
+     */
+    static final Map<String, Class<?>> BY_ORIGINAL_NAME = Map.of(
+            "de.arnohaase.corebanking.accounts.ImmutableDeposit", Deposit.class,
+            "de.arnohaase.corebanking.accounts.ImmutableWithdraw", Withdraw.class,
+            "de.arnohaase.corebanking.accounts.ImmutableTransferCommand", TransferCommand.class,
+            "de.arnohaase.corebanking.accounts.ImmutableReceivedTransfer", ReceivedTransfer.class,
+            "de.arnohaase.corebanking.accounts.ImmutableTransferAckForSender", TransferAckForSender.class);
+
+    private static Money amount (BigDecimal amount, UUID entityId) {
+        final var result = Money.ofLegacy(amount);
+        if (result.toBigDecimal().compareTo(amount) != 0)
+            log.warn("amount {} of an event of account {} has more than {} decimal places, rounded to {}", amount, entityId, Money.SCALE, result);
+        return result;
+    }
+
+    static class Deposit implements Serializable {
+        private static final long serialVersionUID = -2447401585898770533L;
+
+        private BigDecimal amount;
+        private UUID entityId;
+        private Instant timestamp;
+
+        private Object readResolve () {
+            return ImmutableDeposit.of(amount(amount, entityId), timestamp, entityId);
+        }
+    }
+
+    static class Withdraw implements Serializable {
+        private static final long serialVersionUID = 5592850199270626744L;
+
+        private BigDecimal amount;
+        private UUID entityId;
+        private Instant timestamp;
+
+        private Object readResolve () {
+            return ImmutableWithdraw.of(amount(amount, entityId), timestamp, entityId);
+        }
+    }
+
+    static class TransferCommand implements Serializable {
+        private static final long serialVersionUID = -514325371705857498L;
+
+        private boolean isWatched;
+        private BigDecimal amount;
+        private UUID entityId;
+        private UUID targetAccount;
+        private Instant timestamp;
+        private UUID transferId;
+
+        private Object readResolve () {
+            return ImmutableTransferCommand.of(transferId, isWatched, amount(amount, entityId), targetAccount, timestamp, entityId);
+        }
+    }
+
+    static class ReceivedTransfer implements Serializable {
+        private static final long serialVersionUID = -797101309097479112L;
+
+        private long deliveryId;
+        private BigDecimal amount;
+        private UUID entityId;
+        private UUID sourceAccount;
+        private Instant timestamp;
+        private UUID transferId;
+
+        private Object readResolve () {
+            return ImmutableReceivedTransfer.of(deliveryId, transferId, amount(amount, entityId), sourceAccount, timestamp, entityId);
+        }
+    }
+
+    static class TransferAckForSender implements Serializable {
+        private static final long serialVersionUID = -5552528029631404602L;
+
+        private boolean accepted;
+        private long deliveryId;
+        private BigDecimal amount;
+        private UUID entityId;
+        private Instant timestamp;
+        private UUID transferId;
+
+        private Object readResolve () {
+            return ImmutableTransferAckForSender.of(deliveryId, transferId, amount(amount, entityId), accepted, timestamp, entityId);
+        }
+    }
+}
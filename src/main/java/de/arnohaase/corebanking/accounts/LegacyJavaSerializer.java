@@ -0,0 +1,69 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.JavaSerializer;
+import akka.util.ClassLoaderObjectInputStream;
+import scala.Function0;
+import scala.Option;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamClass;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+
+/**
+ * Akka's JavaSerializer, except that events whose classes changed their fields since they were written are read
+ *  through {@link LegacyEvents}. It takes over the JavaSerializer's identifier, see
+ *  'akka.actor.serialization-identifiers', so it reads everything the JavaSerializer wrote.
+ */
+public class LegacyJavaSerializer extends JavaSerializer {
+    public LegacyJavaSerializer (ExtendedActorSystem system) {
+        super(system);
+    }
+
+    @Override public Object fromBinary (byte[] bytes, Option<Class<?>> clazz) {
+        try (var in = new LegacyObjectInputStream(system().dynamicAccess().classLoader(), new ByteArrayInputStream(bytes))) {
+            return JavaSerializer.currentSystem().withValue(system(), (Function0<Object>) () -> {
+                try {
+                    return in.readObject();
+                }
+                catch (IOException exc) {
+                    throw new UncheckedIOException(exc);
+                }
+                catch (ClassNotFoundException exc) {
+                    throw new IllegalArgumentException(exc);
+                }
+            });
+        }
+        catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    private static class LegacyObjectInputStream extends ClassLoaderObjectInputStream {
+        LegacyObjectInputStream (ClassLoader classLoader, InputStream is) throws IOException {
+            super(classLoader, is);
+        }
+
+        /**
+         * replaces the descriptor of an original class with that of its legacy class if the fields are the legacy
+         *  ones; a class with today's fields is read as it is
+         */
+        @Override protected ObjectStreamClass readClassDescriptor () throws IOException, ClassNotFoundException {
+            final var desc = super.readClassDescriptor();
+            final var legacyClass = LegacyEvents.BY_ORIGINAL_NAME.get(desc.getName());
+            if (legacyClass == null)
+                return desc;
+
+            final var legacy = ObjectStreamClass.lookup(legacyClass);
+            return Arrays.equals(fields(legacy), fields(desc)) ? legacy : desc;
+        }
+
+        private static String[] fields (ObjectStreamClass desc) {
+            return Arrays.stream(desc.getFields()).map(f -> f.getTypeString() == null ? f.getTypeCode() + f.getName() : f.getTypeString() + f.getName()).toArray(String[]::new);
+        }
+    }
+}
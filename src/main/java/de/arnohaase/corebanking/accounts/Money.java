@@ -0,0 +1,133 @@
+package de.arnohaase.corebanking.accounts;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+
+/**
+ * An amount of money as a fixed-point number of minor units (i.e. cents) with {@link #SCALE} decimal places. All
+ *  arithmetic is checked for overflow and throws an {@link ArithmeticException} rather than wrapping around.
+ *
+ * Accounts and messages have no currency, so there is a single scale for all amounts. Supporting currencies with a
+ *  different number of minor digits needs a currency per account first; the scale would then be looked up per
+ *  currency instead of being a constant.
+ */
+public final class Money implements Comparable<Money>, Serializable {
+    public static final int SCALE = 2;
+    // minor units per unit
+    public static final long FACTOR = BigDecimal.ONE.scaleByPowerOfTen(SCALE).longValueExact();
+
+    public static final Money ZERO = new Money(0);
+
+    private final long minorUnits;
+
+    private Money (long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+
+    public static Money ofMinorUnits (long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits);
+    }
+
+    /**
+     * converts an amount of an event or snapshot that was written with BigDecimal amounts. Those amounts were not
+     *  limited to {@link #SCALE} decimal places, so finer amounts are rounded half-even to whole minor units.
+     */
+    public static Money ofLegacy (BigDecimal amount) {
+        try {
+            return ofMinorUnits(amount.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact());
+        }
+        catch (ArithmeticException exc) {
+            throw new IllegalArgumentException("amount out of range: " + amount, exc);
+        }
+    }
+
+    /**
+     * parses a plain decimal number with at most {@link #SCALE} fractional digits, e.g. "-12", "0.5" or "1234.56"
+     */
+    @JsonCreator
+    public static Money parse (String s) {
+        final int len = s.length();
+        int i = 0;
+        final boolean negative = len > 0 && s.charAt(0) == '-';
+        if (negative || (len > 0 && s.charAt(0) == '+')) i++;
+
+        long units = 0;
+        int numDigits = 0;
+        int fractionDigits = -1;
+        try {
+            for (; i<len; i++) {
+                final char ch = s.charAt(i);
+                if (ch == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                    continue;
+                }
+                if (ch < '0' || ch > '9' || fractionDigits == SCALE)
+                    throw new IllegalArgumentException("not a valid amount: " + s);
+
+                units = Math.addExact(Math.multiplyExact(units, 10), ch - '0');
+                numDigits++;
+                if (fractionDigits >= 0) fractionDigits++;
+            }
+            if (numDigits == 0)
+                throw new IllegalArgumentException("not a valid amount: " + s);
+
+            for (int f = Math.max(fractionDigits, 0); f < SCALE; f++)
+                units = Math.multiplyExact(units, 10);
+        }
+        catch (ArithmeticException exc) {
+            throw new IllegalArgumentException("amount out of range: " + s, exc);
+        }
+        return ofMinorUnits(negative ? -units : units);
+    }
+
+    public long minorUnits () {
+        return minorUnits;
+    }
+
+    public int signum () {
+        return Long.signum(minorUnits);
+    }
+
+    public Money plus (Money other) {
+        return ofMinorUnits(Math.addExact(minorUnits, other.minorUnits));
+    }
+    public Money minus (Money other) {
+        return ofMinorUnits(Math.subtractExact(minorUnits, other.minorUnits));
+    }
+    public Money negate () {
+        return ofMinorUnits(Math.negateExact(minorUnits));
+    }
+
+    @JsonValue
+    public BigDecimal toBigDecimal () {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    @Override public int compareTo (Money o) {
+        return Long.compare(minorUnits, o.minorUnits);
+    }
+
+    @Override public boolean equals (Object o) {
+        return o instanceof Money && ((Money) o).minorUnits == minorUnits;
+    }
+
+    @Override public int hashCode () {
+        return Long.hashCode(minorUnits);
+    }
+
+    @Override public String toString () {
+        final var result = new StringBuilder(24);
+        if (minorUnits < 0) result.append('-');
+
+        final long abs = Math.abs(minorUnits / FACTOR);
+        final var fraction = Long.toString(Math.abs(minorUnits % FACTOR));
+        result.append(abs).append('.');
+        for (int i=fraction.length(); i<SCALE; i++) result.append('0');
+        return result.append(fraction).toString();
+    }
+}
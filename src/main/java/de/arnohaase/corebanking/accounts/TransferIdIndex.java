@@ -0,0 +1,46 @@
+package de.arnohaase.corebanking.accounts;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * A set of transfer ids with constant time lookup, bounded to the most recent {@code retention} ids. When
+ *  the index is full, adding an id evicts the oldest one.
+ */
+class TransferIdIndex {
+    private final int retention;
+    private final LinkedHashSet<UUID> ids = new LinkedHashSet<>();
+
+    TransferIdIndex (int retention) {
+        this.retention = retention;
+    }
+
+    boolean contains (UUID transferId) {
+        return ids.contains(transferId);
+    }
+
+    void add (UUID transferId) {
+        if (ids.add(transferId) && ids.size() > retention) {
+            final var it = ids.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    void reset (Collection<UUID> transferIds) {
+        ids.clear();
+        transferIds.forEach(this::add);
+    }
+
+    int size () {
+        return ids.size();
+    }
+
+    List<UUID> toList () {
+        return new ArrayList<>(ids);
+    }
+}
@@ -0,0 +1,266 @@
+package de.arnohaase.corebanking.batch;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.actor.Status.Failure;
+import akka.cluster.singleton.ClusterSingletonManager;
+import akka.cluster.singleton.ClusterSingletonManagerSettings;
+import akka.cluster.singleton.ClusterSingletonProxy;
+import akka.cluster.singleton.ClusterSingletonProxySettings;
+import akka.persistence.AbstractPersistentActorWithTimers;
+import akka.persistence.DeleteMessagesFailure;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotOffer;
+import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import de.arnohaase.corebanking.accounts.Money;
+import de.arnohaase.corebanking.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Runs the end-of-day job for a business date, see {@link EndOfDayPostings}. It is a cluster singleton, so a job runs
+ *  once in the cluster, and runs one job at a time.
+ *
+ * The job's progress is persisted every 'checkpoint-every' persistence ids. The read journal does not guarantee the
+ *  order of persistence ids across queries, so a job that was interrupted, by a crash, a stream failure or the
+ *  singleton moving to another node, starts a new pass from the first persistence id; accounts that were posted before
+ *  recognize their posting's id and are not posted again. Accounts whose posting failed are retried in passes of their
+ *  own, and the job keeps running until all of them are posted.
+ */
+public class EndOfDayJob extends AbstractPersistentActorWithTimers {
+    private static final String NAME = "end-of-day";
+
+    private static final Object INIT = "init";
+    private static final Object ACK = "ack";
+    private static final Object COMPLETE = "complete";
+    private static final Object RESUME = "resume";
+    private static final Object RETRY = "retry";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * starts the singleton on this node, returning a proxy for sending it messages
+     */
+    public static ActorRef start (ActorSystem system, ActorRef accounts) {
+        system.actorOf(ClusterSingletonManager.props(props(accounts), PoisonPill.getInstance(), ClusterSingletonManagerSettings.create(system)), NAME);
+        return system.actorOf(ClusterSingletonProxy.props("/user/" + NAME, ClusterSingletonProxySettings.create(system)), NAME + "-proxy");
+    }
+
+    private static Props props (ActorRef accounts) {
+        return Props.create(EndOfDayJob.class, () -> new EndOfDayJob(accounts))
+                .withDispatcher("core-banking.dispatchers.batch");
+    }
+
+    private final EndOfDayPostings postings;
+    private final ActorMaterializer mat;
+    private final Metrics metrics;
+
+    private final int checkpointEvery;
+    private final FiniteDuration restartDelay;
+
+    private TreeMap<LocalDate, EndOfDayMessages.Status> jobs = new TreeMap<>();
+
+    // the running job's progress, null if no job is running
+    private EndOfDayMessages.Status running;
+    private long checkpointedPosition;
+    // the running job's accounts whose posting failed, until a retry succeeds
+    private final Set<UUID> failedAccounts = new HashSet<>();
+
+    private EndOfDayJob (ActorRef accounts) {
+        final var system = context().system();
+        this.mat = ActorMaterializer.create(ActorMaterializerSettings.create(system).withDispatcher("core-banking.dispatchers.batch"), context());
+        this.postings = new EndOfDayPostings(system, accounts);
+        this.metrics = Metrics.get(system);
+
+        final var config = system.settings().config().getConfig("core-banking.end-of-day");
+        this.checkpointEvery = config.getInt("checkpoint-every");
+        this.restartDelay = FiniteDuration.apply(config.getDuration("restart-delay").toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override public String persistenceId () {
+        return NAME;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public Receive createReceiveRecover () {
+        return receiveBuilder()
+                .match(SnapshotOffer.class, offer -> jobs = (TreeMap<LocalDate, EndOfDayMessages.Status>) offer.snapshot())
+                .match(EndOfDayMessages.Status.class, status -> jobs.put(status.businessDate(), status))
+                .match(RecoveryCompleted.class, evt -> {
+                    for (EndOfDayMessages.Status status: jobs.values()) {
+                        if (status.running()) {
+                            log.info("restarting end-of-day job for {} from the first persistence id", status.businessDate());
+                            run(status);
+                        }
+                    }
+                })
+                .build();
+    }
+
+    @Override public Receive createReceive () {
+        return receiveBuilder()
+                .match(EndOfDayMessages.Start.class, this::onStart)
+                .match(EndOfDayMessages.GetStatus.class, this::onGetStatus)
+                .matchEquals(INIT, msg -> sender().tell(ACK, self()))
+                .match(EndOfDayPostings.Outcome.class, this::onOutcome)
+                .matchEquals(COMPLETE, msg -> onComplete())
+                .match(Failure.class, this::onStreamFailure)
+                .matchEquals(RESUME, msg -> { if (running != null) run(running); })
+                .matchEquals(RETRY, msg -> { if (running != null) retry(); })
+                .match(SaveSnapshotSuccess.class, msg -> deleteMessages(msg.metadata().sequenceNr()))
+                .match(SaveSnapshotFailure.class, msg -> log.warn("saving snapshot failed for {}", persistenceId(), msg.cause()))
+                .match(DeleteMessagesFailure.class, msg -> log.warn("deleting events failed for {}", persistenceId(), msg.cause()))
+                .build();
+    }
+
+    private void onStart (EndOfDayMessages.Start msg) {
+        final var existing = jobs.get(msg.businessDate());
+        if (existing != null)
+            sender().tell(withRate(existing, Instant.now()), self());
+        else if (running != null)
+            sender().tell(new Failure(new IllegalArgumentException("the job for " + running.businessDate() + " is running")), self());
+        else {
+            final var now = Instant.now();
+            final EndOfDayMessages.Status status = ImmutableStatus.builder()
+                    .businessDate(msg.businessDate())
+                    .running(true)
+                    .position(0)
+                    .accounts(0)
+                    .interestPostings(0)
+                    .interestTotal(Money.ZERO)
+                    .feePostings(0)
+                    .feeTotal(Money.ZERO)
+                    .feesRejected(0)
+                    .alreadyPosted(0)
+                    .failed(0)
+                    .startedAt(now)
+                    .updatedAt(now)
+                    .accountsPerSecond(0)
+                    .build();
+            persist(status, evt -> {
+                jobs.put(evt.businessDate(), evt);
+                log.info("starting end-of-day job for {}", evt.businessDate());
+                sender().tell(evt, self());
+                run(evt);
+            });
+        }
+    }
+
+    private void onGetStatus (EndOfDayMessages.GetStatus msg) {
+        final var status = running != null && running.businessDate().equals(msg.businessDate()) ? running : jobs.get(msg.businessDate());
+        if (status == null)
+            sender().tell(new Failure(new NoSuchElementException("no end-of-day job for " + msg.businessDate())), self());
+        else
+            sender().tell(withRate(status, Instant.now()), self());
+    }
+
+    /**
+     * starts a pass over all persistence ids, which includes the accounts that failed so far
+     */
+    private void run (EndOfDayMessages.Status status) {
+        failedAccounts.clear();
+        runPass(ImmutableStatus.copyOf(status).withPosition(0).withFailed(0), postings.outcomes(status.businessDate()));
+    }
+
+    private void retry () {
+        log.info("retrying {} failed accounts of the end-of-day job for {}", failedAccounts.size(), running.businessDate());
+        runPass(ImmutableStatus.copyOf(running).withPosition(0), postings.outcomes(running.businessDate(), failedAccounts));
+    }
+
+    private void runPass (EndOfDayMessages.Status status, Source<EndOfDayPostings.Outcome, NotUsed> outcomes) {
+        running = status;
+        checkpointedPosition = 0;
+        outcomes.runWith(Sink.actorRefWithAck(self(), INIT, ACK, COMPLETE, Failure::new), mat);
+    }
+
+    private void onOutcome (EndOfDayPostings.Outcome outcome) {
+        final var status = ImmutableStatus.builder().from(running)
+                .position(outcome.position + 1)
+                .updatedAt(Instant.now());
+        // accounts that are already posted were counted when they were posted, if that was before the last checkpoint
+        if (outcome.isAccount && ! outcome.alreadyPosted && ! outcome.failed) {
+            status.accounts(running.accounts() + 1);
+            metrics.counter("end_of_day_accounts").increment();
+        }
+        if (outcome.interest.signum() > 0)
+            status.interestPostings(running.interestPostings() + 1).interestTotal(running.interestTotal().plus(outcome.interest));
+        if (outcome.fee.signum() > 0)
+            status.feePostings(running.feePostings() + 1).feeTotal(running.feeTotal().plus(outcome.fee));
+        if (outcome.feeRejected)
+            status.feesRejected(running.feesRejected() + 1);
+        if (outcome.alreadyPosted)
+            status.alreadyPosted(running.alreadyPosted() + 1);
+        if (outcome.failed) {
+            if (failedAccounts.add(outcome.accountId))
+                status.failed(running.failed() + 1);
+            metrics.counter("end_of_day_failures").increment();
+        }
+        else if (outcome.accountId != null && failedAccounts.remove(outcome.accountId))
+            status.failed(running.failed() - 1);
+        running = status.build();
+
+        if (running.position() - checkpointedPosition >= checkpointEvery)
+            checkpoint(running, () -> sender().tell(ACK, self()));
+        else
+            sender().tell(ACK, self());
+    }
+
+    private void onComplete () {
+        if (! failedAccounts.isEmpty()) {
+            log.warn("end-of-day job for {}: {} accounts failed, retrying in {}", running.businessDate(), failedAccounts.size(), restartDelay);
+            checkpoint(running, () -> timers().startSingleTimer(RETRY, RETRY, restartDelay));
+            return;
+        }
+
+        final var finished = withRate(ImmutableStatus.builder().from(running).running(false).updatedAt(Instant.now()).build(), Instant.now());
+        checkpoint(finished, () -> {
+            log.info("end-of-day job for {} finished: {} accounts in {} s ({} / s), {} interest postings totalling {}, {} fees totalling {}, {} fees rejected, {} already posted, {} failed",
+                    finished.businessDate(), finished.accounts(), Duration.between(finished.startedAt(), finished.updatedAt()).getSeconds(),
+                    (long) finished.accountsPerSecond(), finished.interestPostings(), finished.interestTotal(), finished.feePostings(),
+                    finished.feeTotal(), finished.feesRejected(), finished.alreadyPosted(), finished.failed());
+            running = null;
+            saveSnapshot(new TreeMap<>(jobs));
+        });
+    }
+
+    private void onStreamFailure (Failure msg) {
+        log.warn("end-of-day job for {} failed at position {}, restarting in {}", running.businessDate(), running.position(), restartDelay, msg.cause());
+        checkpoint(running, () -> timers().startSingleTimer(RESUME, RESUME, restartDelay));
+    }
+
+    private void checkpoint (EndOfDayMessages.Status status, Runnable then) {
+        persist(withRate(status, status.updatedAt()), evt -> {
+            jobs.put(evt.businessDate(), evt);
+            checkpointedPosition = evt.position();
+            then.run();
+        });
+    }
+
+    /**
+     * accounts per second since the job was started, including the time it was interrupted
+     */
+    private static EndOfDayMessages.Status withRate (EndOfDayMessages.Status status, Instant now) {
+        final long millis = Duration.between(status.startedAt(), status.running() ? now : status.updatedAt()).toMillis();
+        return ImmutableStatus.copyOf(status).withAccountsPerSecond(millis == 0 ? 0 : status.accounts() * 1000.0 / millis);
+    }
+}
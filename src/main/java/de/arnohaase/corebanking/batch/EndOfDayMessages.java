@@ -0,0 +1,51 @@
+package de.arnohaase.corebanking.batch;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import de.arnohaase.corebanking.accounts.Money;
+import org.immutables.value.Value;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDate;
+
+
+public class EndOfDayMessages {
+    /**
+     * starts the job for a business date unless it was started before; the reply is the job's {@link Status}
+     */
+    @Value.Immutable
+    public interface Start extends Serializable {
+        @Value.Parameter LocalDate businessDate();
+    }
+
+    @Value.Immutable
+    public interface GetStatus extends Serializable {
+        @Value.Parameter LocalDate businessDate();
+    }
+
+    /**
+     * A job's progress, persisted at every checkpoint. 'position' is the number of persistence ids that the current
+     *  pass handled, and 'failed' the number of accounts whose posting failed and is retried. 'alreadyPosted' counts
+     *  accounts that an interrupted job had posted; those posted before its last checkpoint are in 'accounts' too.
+     */
+    @JsonSerialize
+    @Value.Immutable
+    public interface Status extends Serializable {
+        LocalDate businessDate();
+        boolean running();
+        long position();
+
+        long accounts();
+        long interestPostings();
+        Money interestTotal();
+        long feePostings();
+        Money feeTotal();
+        long feesRejected();
+        long alreadyPosted();
+        long failed();
+
+        Instant startedAt();
+        Instant updatedAt();
+        double accountsPerSecond();
+    }
+}
@@ -0,0 +1,229 @@
+package de.arnohaase.corebanking.batch;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.sharding.ShardRegion;
+import akka.pattern.PatternsCS;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.javadsl.CurrentPersistenceIdsQuery;
+import akka.stream.ThrottleMode;
+import akka.stream.javadsl.Source;
+import com.typesafe.config.Config;
+import de.arnohaase.corebanking.accounts.*;
+import de.arnohaase.corebanking.metrics.Metrics;
+import de.arnohaase.corebanking.metrics.StageTimer;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+
+/**
+ * One pass of the end-of-day job: enumerates persistence ids through the read journal, or takes a given list of
+ *  accounts, and sends each account its postings for the business date as a single {@link AccountMessages.BulkCommand},
+ *  based on the balance it reports. The stream is throttled to 'max-rate' accounts per second, with at most 'parallelism'
+ *  accounts in flight and at most 'parallelism-per-shard' of them in the same shard, so online traffic keeps most of
+ *  the accounts' capacity. Outcomes are emitted in enumeration order.
+ *
+ * Postings are value dated at the end of the business day. Each carries a posting id derived from the account and
+ *  the business date, which the account writes only once, so a pass can be repeated without posting accounts twice.
+ */
+class EndOfDayPostings {
+    /**
+     * what was done for a persistence id
+     */
+    static class Outcome {
+        final long position;
+        final UUID accountId; // null if the persistence id is not an account's
+        final boolean isAccount;
+        final Money interest;
+        final Money fee;
+        final boolean feeRejected;
+        final boolean alreadyPosted;
+        final boolean failed;
+
+        Outcome (long position, UUID accountId, boolean isAccount, Money interest, Money fee, boolean feeRejected, boolean alreadyPosted, boolean failed) {
+            this.position = position;
+            this.accountId = accountId;
+            this.isAccount = isAccount;
+            this.interest = interest;
+            this.fee = fee;
+            this.feeRejected = feeRejected;
+            this.alreadyPosted = alreadyPosted;
+            this.failed = failed;
+        }
+
+        static Outcome skipped (long position, UUID accountId) {
+            return new Outcome(position, accountId, false, Money.ZERO, Money.ZERO, false, false, false);
+        }
+    }
+
+    private final ActorRef accounts;
+    private final CurrentPersistenceIdsQuery persistenceIds;
+    private final ShardRegion.MessageExtractor messageExtractor;
+    private final StageTimer accountTimer;
+
+    private final BigDecimal dailyInterestRate;
+    private final long fee;
+    private final long feeWaivedFrom;
+    private final int maxRate;
+    private final int parallelism;
+    private final int parallelismPerShard;
+    private final long askTimeoutMillis;
+
+    EndOfDayPostings (ActorSystem system, ActorRef accounts) {
+        this.accounts = accounts;
+        this.persistenceIds = PersistenceQuery.get(system).getReadJournalFor(CurrentPersistenceIdsQuery.class, system.settings().config().getString("core-banking.read-journal"));
+        this.messageExtractor = Accounts.messageExtractor(system.settings().config());
+        this.accountTimer = Metrics.get(system).stageTimer("end_of_day_account");
+
+        final Config config = system.settings().config().getConfig("core-banking.end-of-day");
+        this.dailyInterestRate = new BigDecimal(config.getString("interest-rate")).divide(BigDecimal.valueOf(config.getInt("days-per-year")), 20, RoundingMode.HALF_EVEN);
+        this.fee = Money.parse(config.getString("fee")).minorUnits();
+        this.feeWaivedFrom = Money.parse(config.getString("fee-waived-from")).minorUnits();
+        this.maxRate = config.getInt("max-rate");
+        this.parallelism = config.getInt("parallelism");
+        this.parallelismPerShard = config.getInt("parallelism-per-shard");
+        this.askTimeoutMillis = config.getDuration("ask-timeout").toMillis();
+    }
+
+    /**
+     * the time at which postings for a business date are value dated, the last instant of the day in UTC
+     */
+    static Instant valueTimestamp (LocalDate businessDate) {
+        return businessDate.atTime(LocalTime.MAX).toInstant(ZoneOffset.UTC);
+    }
+
+    /**
+     * the id of an account's posting for a business date, the same in every run of the job
+     */
+    static UUID postingId (UUID accountId, LocalDate businessDate) {
+        return UUID.nameUUIDFromBytes(("end-of-day:" + accountId + ":" + businessDate).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * a pass over all persistence ids
+     */
+    Source<Outcome, NotUsed> outcomes (LocalDate businessDate) {
+        return outcomes(businessDate, persistenceIds.currentPersistenceIds().map(id -> Optional.ofNullable(AccountEntity.accountId(id))));
+    }
+
+    /**
+     * a pass over the given accounts, e.g. those that failed in an earlier pass
+     */
+    Source<Outcome, NotUsed> outcomes (LocalDate businessDate, Collection<UUID> accountIds) {
+        return outcomes(businessDate, Source.from(new ArrayList<>(accountIds)).map(Optional::of));
+    }
+
+    /**
+     * @param accountIds empty for a persistence id that is not an account's
+     */
+    private Source<Outcome, NotUsed> outcomes (LocalDate businessDate, Source<Optional<UUID>, NotUsed> accountIds) {
+        final var timestamp = valueTimestamp(businessDate);
+        final var lanes = new ShardLanes(parallelismPerShard);
+
+        return accountIds
+                .zipWithIndex()
+                .throttle(maxRate, FiniteDuration.apply(1, TimeUnit.SECONDS), maxRate, ThrottleMode.shaping())
+                .mapAsync(parallelism, p -> {
+                    final long position = (Long) p.second();
+                    final var accountId = p.first().orElse(null);
+                    if (accountId == null)
+                        return CompletableFuture.completedFuture(Outcome.skipped(position, null));
+
+                    final var shardId = messageExtractor.shardId(ImmutableGet.of(accountId));
+                    return lanes.submit(shardId, () ->
+                            accountTimer.time(post(accountId, position, postingId(accountId, businessDate), timestamp)));
+                });
+    }
+
+    private CompletionStage<Outcome> post (UUID accountId, long position, UUID postingId, Instant timestamp) {
+        return PatternsCS.ask(accounts, ImmutableGet.of(accountId), askTimeoutMillis)
+                .thenCompose(response -> book(accountId, position, postingId, ((AccountMessages.GetResponse) response).balance().minorUnits(), timestamp))
+                .exceptionally(exc -> {
+                    final var cause = exc instanceof CompletionException && exc.getCause() != null ? exc.getCause() : exc;
+                    // a persistence id without a created account, e.g. after a failed creation
+                    if (cause instanceof NoSuchElementException)
+                        return Outcome.skipped(position, accountId);
+                    return new Outcome(position, accountId, true, Money.ZERO, Money.ZERO, false, false, true);
+                });
+    }
+
+    private CompletionStage<Outcome> book (UUID accountId, long position, UUID postingId, long balance, Instant timestamp) {
+        final var interest = Money.ofMinorUnits(interest(balance));
+        final var fee = Money.ofMinorUnits(balance >= feeWaivedFrom ? 0 : this.fee);
+        if (interest.signum() == 0 && fee.signum() == 0)
+            return CompletableFuture.completedFuture(new Outcome(position, accountId, true, Money.ZERO, Money.ZERO, false, false, false));
+
+        return PatternsCS.ask(accounts, ImmutablePosting.of(postingId, interest, fee, timestamp, accountId), askTimeoutMillis)
+                .thenApply(response -> {
+                    final var posted = (AccountMessages.PostingResponse) response;
+                    if (posted.alreadyPosted())
+                        return new Outcome(position, accountId, true, Money.ZERO, Money.ZERO, false, true, false);
+                    final boolean feeRejected = fee.signum() > 0 && posted.fee().signum() == 0;
+                    return new Outcome(position, accountId, true, interest, posted.fee(), feeRejected, false, false);
+                });
+    }
+
+    /**
+     * the day's interest on a balance in minor units, rounded half even; there is no interest on negative balances
+     */
+    long interest (long balance) {
+        if (balance <= 0)
+            return 0;
+        return BigDecimal.valueOf(balance).multiply(dailyInterestRate).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+    }
+
+    /**
+     * Limits the postings per shard that run at the same time by queueing a shard's further postings behind earlier
+     *  ones. It is only called from the stream's mapAsync stage, so it needs no synchronization.
+     */
+    private static class ShardLanes {
+        private final int lanesPerShard;
+        private final Map<String, CompletionStage<?>[]> lanes = new HashMap<>();
+        private int next = 0;
+
+        ShardLanes (int lanesPerShard) {
+            this.lanesPerShard = lanesPerShard;
+        }
+
+        <T> CompletionStage<T> submit (String shardId, Supplier<CompletionStage<T>> task) {
+            final var shardLanes = lanes.computeIfAbsent(shardId, x -> new CompletionStage<?>[lanesPerShard]);
+
+            int lane = -1;
+            for (int i=0; i<shardLanes.length && lane < 0; i++) {
+                if (shardLanes[i] == null || shardLanes[i].toCompletableFuture().isDone())
+                    lane = i;
+            }
+            if (lane < 0) {
+                lane = next;
+                next = (next + 1) % lanesPerShard;
+            }
+
+            final var previous = shardLanes[lane];
+            final CompletionStage<T> result = previous == null || previous.toCompletableFuture().isDone()
+                    ? task.get()
+                    : previous.handle((r, exc) -> null).thenCompose(x -> task.get());
+            shardLanes[lane] = result;
+            return result;
+        }
+    }
+}
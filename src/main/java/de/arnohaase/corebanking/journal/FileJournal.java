@@ -0,0 +1,98 @@
+package de.arnohaase.corebanking.journal;
+
+import akka.dispatch.Futures;
+import akka.persistence.AtomicWrite;
+import akka.persistence.PersistentRepr;
+import akka.persistence.journal.Tagged;
+import akka.persistence.journal.japi.AsyncWriteJournal;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import com.typesafe.config.Config;
+import scala.collection.JavaConverters;
+import scala.compat.java8.FutureConverters;
+import scala.concurrent.Future;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+
+/**
+ * Journal plugin storing events in local memory mapped files, see {@link FileStore}. It needs no external database,
+ *  so it is meant for single node deployments, perf tests and CI.
+ *
+ * Events are stored as serialized PersistentRepr; tags added by event adapters are stored alongside for
+ *  {@link FileReadJournal}'s eventsByTag.
+ */
+public class FileJournal extends AsyncWriteJournal {
+    private static final int REPLAY_CHUNK_SIZE = 1000;
+
+    private final FileStore store;
+    private final Serialization serialization = SerializationExtension.get(context().system());
+
+    public FileJournal (Config config) {
+        this.store = FileStores.get(context().system()).open(config);
+    }
+
+    @Override public Future<Iterable<Optional<Exception>>> doAsyncWriteMessages (Iterable<AtomicWrite> messages) {
+        // an AtomicWrite that can not be serialized is rejected, the others are written in a single group
+        final var results = new ArrayList<Optional<Exception>>();
+        final var events = new ArrayList<FileStore.Event>();
+        for (AtomicWrite write: messages) {
+            try {
+                final var encoded = new ArrayList<FileStore.Event>();
+                for (PersistentRepr repr: JavaConverters.seqAsJavaList(write.payload()))
+                    encoded.add(encode(repr));
+                events.addAll(encoded);
+                results.add(Optional.empty());
+            }
+            catch (Exception exc) {
+                results.add(Optional.of(exc));
+            }
+        }
+
+        return FutureConverters.toScala(store.write(events).thenApply(x -> (Iterable<Optional<Exception>>) results));
+    }
+
+    private FileStore.Event encode (PersistentRepr repr) {
+        Collection<String> tags = List.of();
+        if (repr.payload() instanceof Tagged) {
+            final var tagged = (Tagged) repr.payload();
+            tags = JavaConverters.setAsJavaSet(tagged.tags());
+            repr = repr.withPayload(tagged.payload());
+        }
+
+        final var event = new FileStore.Event(repr.persistenceId(), repr.sequenceNr(), tags, serialization.serialize(repr).get());
+        store.checkSize(event);
+        return event;
+    }
+
+    @Override public Future<Void> doAsyncDeleteMessagesTo (String persistenceId, long toSequenceNr) {
+        return FutureConverters.toScala(store.delete(persistenceId, toSequenceNr));
+    }
+
+    @Override public Future<Void> doAsyncReplayMessages (String persistenceId, long fromSequenceNr, long toSequenceNr, long max,
+                                                        Consumer<PersistentRepr> replayCallback) {
+        return Futures.future(() -> {
+            long next = fromSequenceNr;
+            long remaining = max;
+            while (remaining > 0) {
+                final var events = store.events(persistenceId, next, toSequenceNr, (int) Math.min(remaining, REPLAY_CHUNK_SIZE));
+                if (events.isEmpty())
+                    break;
+
+                for (FileStore.Event event: events)
+                    replayCallback.accept(serialization.deserialize(event.payload, PersistentRepr.class).get());
+                next = events.get(events.size() - 1).sequenceNr + 1;
+                remaining -= events.size();
+            }
+            return null;
+        }, context().dispatcher());
+    }
+
+    @Override public Future<Long> doAsyncReadHighestSequenceNr (String persistenceId, long fromSequenceNr) {
+        return Futures.successful(store.highestSequenceNr(persistenceId));
+    }
+}
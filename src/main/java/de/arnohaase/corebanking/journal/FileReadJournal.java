@@ -0,0 +1,204 @@
+package de.arnohaase.corebanking.journal;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.pattern.PatternsCS;
+import akka.persistence.PersistentRepr;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.Sequence;
+import akka.persistence.query.TimeBasedUUID;
+import akka.persistence.query.javadsl.CurrentEventsByPersistenceIdQuery;
+import akka.persistence.query.javadsl.CurrentEventsByTagQuery;
+import akka.persistence.query.javadsl.CurrentPersistenceIdsQuery;
+import akka.persistence.query.javadsl.EventsByPersistenceIdQuery;
+import akka.persistence.query.javadsl.EventsByTagQuery;
+import akka.persistence.query.javadsl.PersistenceIdsQuery;
+import akka.persistence.query.javadsl.ReadJournal;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.stream.javadsl.Source;
+import com.datastax.driver.core.utils.UUIDs;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+
+/**
+ * Queries on a {@link FileJournal}'s store. Live queries poll the in-memory index at 'refresh-interval' while there is
+ *  nothing new.
+ *
+ * Event offsets are {@link Sequence}s: the sequence number for queries by persistence id, and the record's position
+ *  in the journal files for queries by tag. Those are ascending but not contiguous, and they stay valid across
+ *  restarts, so a query by tag can resume from a stored offset. Offsets are exclusive, i.e. a query by tag returns the
+ *  events after the offset. A query by tag also accepts a {@link TimeBasedUUID} offset, to start at a point in time;
+ *  it returns the events written from then on, and possibly some of the preceding second. Queries by persistence id
+ *  do not return deleted events; queries by tag skip them only once their segment is removed.
+ *
+ * The 'current' queries stop at what was written when they were materialized, so they complete under write load.
+ */
+public class FileReadJournal implements ReadJournal,
+        EventsByPersistenceIdQuery, CurrentEventsByPersistenceIdQuery,
+        EventsByTagQuery, CurrentEventsByTagQuery,
+        PersistenceIdsQuery, CurrentPersistenceIdsQuery {
+
+    private final ActorSystem system;
+    private final FileStore store;
+    private final Serialization serialization;
+    private final FiniteDuration refreshInterval;
+    private final int maxBufferSize;
+
+    FileReadJournal (ActorSystem system, Config config) {
+        this.system = system;
+        this.store = FileStores.get(system).open(system.settings().config().getConfig(config.getString("write-plugin")));
+        this.serialization = SerializationExtension.get(system);
+        this.refreshInterval = FiniteDuration.create(config.getDuration("refresh-interval").toMillis(), TimeUnit.MILLISECONDS);
+        this.maxBufferSize = config.getInt("max-buffer-size");
+    }
+
+    @Override public Source<EventEnvelope, NotUsed> eventsByPersistenceId (String persistenceId, long fromSequenceNr, long toSequenceNr) {
+        return live(() -> byPersistenceId(persistenceId, fromSequenceNr, toSequenceNr));
+    }
+
+    @Override public Source<EventEnvelope, NotUsed> currentEventsByPersistenceId (String persistenceId, long fromSequenceNr, long toSequenceNr) {
+        return current(() -> byPersistenceId(persistenceId, fromSequenceNr, Math.min(toSequenceNr, store.highestSequenceNr(persistenceId))));
+    }
+
+    private IntFunction<List<EventEnvelope>> byPersistenceId (String persistenceId, long fromSequenceNr, long toSequenceNr) {
+        final long[] next = { fromSequenceNr };
+        return max -> {
+            if (next[0] > toSequenceNr)
+                return null;
+            final var events = store.events(persistenceId, next[0], toSequenceNr, max);
+            if (! events.isEmpty())
+                next[0] = events.get(events.size() - 1).sequenceNr + 1;
+            return events.stream()
+                    .map(e -> envelope(Offset.sequence(e.sequenceNr), e))
+                    .collect(Collectors.toList());
+        };
+    }
+
+    @Override public Source<EventEnvelope, NotUsed> eventsByTag (String tag, Offset offset) {
+        return live(() -> byTag(tag, offset, Long.MAX_VALUE));
+    }
+
+    @Override public Source<EventEnvelope, NotUsed> currentEventsByTag (String tag, Offset offset) {
+        return current(() -> byTag(tag, offset, store.lastTagOffset(tag)));
+    }
+
+    /**
+     * @param toOffset the offset of the last event returned, inclusive
+     */
+    private IntFunction<List<EventEnvelope>> byTag (String tag, Offset offset, long toOffset) {
+        final long[] after = { tagOffset(offset) };
+        return max -> {
+            if (after[0] >= toOffset)
+                return null;
+            final var events = store.eventsByTag(tag, after[0], max);
+            if (! events.isEmpty())
+                after[0] = events.get(events.size() - 1).offset;
+            return events.stream()
+                    .filter(e -> e.offset <= toOffset)
+                    .map(e -> envelope(Offset.sequence(e.offset), e.event))
+                    .collect(Collectors.toList());
+        };
+    }
+
+    private long tagOffset (Offset offset) {
+        if (offset instanceof Sequence)
+            return ((Sequence) offset).value();
+        if (offset instanceof TimeBasedUUID)
+            return store.offsetAt(UUIDs.unixTimestamp(((TimeBasedUUID) offset).value()));
+        if (offset.equals(Offset.noOffset()))
+            return 0;
+        throw new IllegalArgumentException("unsupported offset type " + offset.getClass().getName());
+    }
+
+    @Override public Source<String, NotUsed> persistenceIds () {
+        return live(() -> allPersistenceIds(Integer.MAX_VALUE));
+    }
+
+    @Override public Source<String, NotUsed> currentPersistenceIds () {
+        return current(() -> allPersistenceIds(store.numPersistenceIds()));
+    }
+
+    private IntFunction<List<String>> allPersistenceIds (int count) {
+        final int[] next = { 0 };
+        return max -> {
+            if (next[0] >= count)
+                return null;
+            final var result = store.persistenceIds(next[0], Math.min(max, count - next[0]));
+            next[0] += result.size();
+            return result;
+        };
+    }
+
+    private EventEnvelope envelope (Offset offset, FileStore.Event event) {
+        final var repr = serialization.deserialize(event.payload, PersistentRepr.class).get();
+        return new EventEnvelope(offset, event.persistenceId, event.sequenceNr, repr.payload());
+    }
+
+    /*
+     * A query is a function returning up to the requested number of further results, or null when it is complete.
+     */
+
+    /**
+     * everything the query returns at the time of materialization
+     */
+    private <T> Source<T, NotUsed> current (Supplier<IntFunction<List<T>>> query) {
+        return Source.single(NotUsed.getInstance())
+                .mapConcat(x -> drain(query.get()));
+    }
+
+    /**
+     * polls the query at 'refresh-interval' while it returns nothing new
+     */
+    private <T> Source<T, NotUsed> live (Supplier<IntFunction<List<T>>> query) {
+        return Source.single(NotUsed.getInstance())
+                .flatMapConcat(x -> Source.unfoldAsync(query.get(), this::poll))
+                .mapConcat(chunk -> chunk);
+    }
+
+    private <T> CompletionStage<Optional<Pair<IntFunction<List<T>>, List<T>>>> poll (IntFunction<List<T>> query) {
+        final var chunk = query.apply(maxBufferSize);
+        if (chunk == null)
+            return CompletableFuture.completedFuture(Optional.empty());
+        if (! chunk.isEmpty())
+            return CompletableFuture.completedFuture(Optional.of(Pair.create(query, chunk)));
+        return PatternsCS.after(refreshInterval, system.scheduler(), system.dispatcher(), () -> poll(query));
+    }
+
+    /**
+     * lazily fetches chunks of 'max-buffer-size' until the query returns nothing more
+     */
+    private <T> Iterable<T> drain (IntFunction<List<T>> query) {
+        return () -> new Iterator<T>() {
+            Iterator<T> chunk = List.<T>of().iterator();
+
+            @Override public boolean hasNext () {
+                if (! chunk.hasNext()) {
+                    final var next = query.apply(maxBufferSize);
+                    chunk = next == null ? List.<T>of().iterator() : next.iterator();
+                }
+                return chunk.hasNext();
+            }
+
+            @Override public T next () {
+                if (! hasNext())
+                    throw new NoSuchElementException();
+                return chunk.next();
+            }
+        };
+    }
+}
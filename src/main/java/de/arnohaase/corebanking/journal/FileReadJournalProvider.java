@@ -0,0 +1,72 @@
+package de.arnohaase.corebanking.journal;
+
+import akka.NotUsed;
+import akka.actor.ExtendedActorSystem;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.ReadJournalProvider;
+import akka.persistence.query.scaladsl.CurrentEventsByPersistenceIdQuery;
+import akka.persistence.query.scaladsl.CurrentEventsByTagQuery;
+import akka.persistence.query.scaladsl.CurrentPersistenceIdsQuery;
+import akka.persistence.query.scaladsl.EventsByPersistenceIdQuery;
+import akka.persistence.query.scaladsl.EventsByTagQuery;
+import akka.persistence.query.scaladsl.PersistenceIdsQuery;
+import akka.persistence.query.scaladsl.ReadJournal;
+import akka.stream.scaladsl.Source;
+import com.typesafe.config.Config;
+
+
+/**
+ * Persistence Query plugin for {@link FileJournal}. The Scala API delegates to the Java one.
+ */
+public class FileReadJournalProvider implements ReadJournalProvider {
+    private final FileReadJournal readJournal;
+
+    public FileReadJournalProvider (ExtendedActorSystem system, Config config) {
+        this.readJournal = new FileReadJournal(system, config);
+    }
+
+    @Override public ReadJournal scaladslReadJournal () {
+        return new ScaladslReadJournal(readJournal);
+    }
+
+    @Override public akka.persistence.query.javadsl.ReadJournal javadslReadJournal () {
+        return readJournal;
+    }
+
+    static class ScaladslReadJournal implements ReadJournal,
+            EventsByPersistenceIdQuery, CurrentEventsByPersistenceIdQuery,
+            EventsByTagQuery, CurrentEventsByTagQuery,
+            PersistenceIdsQuery, CurrentPersistenceIdsQuery {
+
+        private final FileReadJournal javadsl;
+
+        ScaladslReadJournal (FileReadJournal javadsl) {
+            this.javadsl = javadsl;
+        }
+
+        @Override public Source<EventEnvelope, NotUsed> eventsByPersistenceId (String persistenceId, long fromSequenceNr, long toSequenceNr) {
+            return javadsl.eventsByPersistenceId(persistenceId, fromSequenceNr, toSequenceNr).asScala();
+        }
+
+        @Override public Source<EventEnvelope, NotUsed> currentEventsByPersistenceId (String persistenceId, long fromSequenceNr, long toSequenceNr) {
+            return javadsl.currentEventsByPersistenceId(persistenceId, fromSequenceNr, toSequenceNr).asScala();
+        }
+
+        @Override public Source<EventEnvelope, NotUsed> eventsByTag (String tag, Offset offset) {
+            return javadsl.eventsByTag(tag, offset).asScala();
+        }
+
+        @Override public Source<EventEnvelope, NotUsed> currentEventsByTag (String tag, Offset offset) {
+            return javadsl.currentEventsByTag(tag, offset).asScala();
+        }
+
+        @Override public Source<String, NotUsed> persistenceIds () {
+            return javadsl.persistenceIds().asScala();
+        }
+
+        @Override public Source<String, NotUsed> currentPersistenceIds () {
+            return javadsl.currentPersistenceIds().asScala();
+        }
+    }
+}
@@ -0,0 +1,654 @@
+package de.arnohaase.corebanking.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append-only storage for serialized events in memory mapped segment files, shared by {@link FileJournal} and
+ *  {@link FileReadJournal}.
+ *
+ * Writes are queued and appended by a single writer thread. It forces everything it appended in one go to disk before
+ *  completing any of the writes (group commit), and only then are the records visible to readers. An in-memory index
+ *  maps each persistence id's sequence numbers, and each tag's entries, to record positions; it is rebuilt by scanning
+ *  the segments on startup.
+ *
+ * Deletion is logical, by writing a marker record. Once all events in the oldest segment are deleted, the segment file
+ *  is removed.
+ *
+ * Record layout: int length, int crc32 of the body, then the body of 'length' bytes: byte type, persistence id,
+ *  long sequence number, and for events the tags and the serialized PersistentRepr. Strings are a short length plus
+ *  UTF-8 bytes. Segments are preallocated and zero filled, so a zero length marks the end of a segment's records.
+ */
+class FileStore {
+    private static final Logger log = LoggerFactory.getLogger(FileStore.class);
+
+    private static final byte EVENT = 1;
+    private static final byte DELETION = 2;
+    private static final int HEADER_SIZE = 8;
+
+    static class Event {
+        final String persistenceId;
+        final long sequenceNr;
+        final Collection<String> tags;
+        final byte[] payload;
+
+        Event (String persistenceId, long sequenceNr, Collection<String> tags, byte[] payload) {
+            this.persistenceId = persistenceId;
+            this.sequenceNr = sequenceNr;
+            this.tags = tags;
+            this.payload = payload;
+        }
+    }
+
+    static class TaggedEvent {
+        final long offset;
+        final Event event;
+
+        TaggedEvent (long offset, Event event) {
+            this.offset = offset;
+            this.event = event;
+        }
+    }
+
+    private static class Segment {
+        final int id;
+        final Path file;
+        final MappedByteBuffer buffer;
+        int size = 0;
+        int liveEvents = 0;
+
+        Segment (int id, Path file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class PersistenceIdIndex {
+        // positions by sequence number, starting at firstSequenceNr; 0 for gaps
+        long firstSequenceNr = 1;
+        long[] positions = new long[4];
+        int count = 0;
+
+        long highestSequenceNr = 0;
+        long deletedTo = 0;
+        int lastRecordSegment;
+
+        void add (long sequenceNr, long position) {
+            if (count == 0)
+                firstSequenceNr = sequenceNr;
+            final int i = (int) (sequenceNr - firstSequenceNr);
+            if (i >= positions.length)
+                positions = Arrays.copyOf(positions, Math.max(i + 1, 2 * positions.length));
+            positions[i] = position;
+            count = Math.max(count, i + 1);
+            highestSequenceNr = Math.max(highestSequenceNr, sequenceNr);
+        }
+
+        long position (long sequenceNr) {
+            final long i = sequenceNr - firstSequenceNr;
+            return i >= 0 && i < count ? positions[(int) i] : 0;
+        }
+
+        void trim () {
+            final int numDeleted = (int) Math.min(count, Math.max(0, deletedTo - firstSequenceNr + 1));
+            if (numDeleted > 0) {
+                System.arraycopy(positions, numDeleted, positions, 0, count - numDeleted);
+                Arrays.fill(positions, count - numDeleted, count, 0);
+                firstSequenceNr += numDeleted;
+                count -= numDeleted;
+            }
+        }
+    }
+
+    private static class TagIndex {
+        // in the order they were written, which is ascending
+        long[] positions = new long[16];
+        int count = 0;
+
+        void add (long position) {
+            if (count == positions.length)
+                positions = Arrays.copyOf(positions, 2 * count);
+            positions[count++] = position;
+        }
+    }
+
+    private static abstract class Request {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+    }
+    private static class WriteRequest extends Request {
+        final List<Event> events;
+
+        WriteRequest (List<Event> events) {
+            this.events = events;
+        }
+    }
+    private static class DeleteRequest extends Request {
+        final String persistenceId;
+        final long toSequenceNr;
+
+        DeleteRequest (String persistenceId, long toSequenceNr) {
+            this.persistenceId = persistenceId;
+            this.toSequenceNr = toSequenceNr;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+
+    // guarded by 'this'; the writer thread holds the lock only to publish what it forced to disk
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, PersistenceIdIndex> persistenceIds = new HashMap<>();
+    private final List<String> persistenceIdsInOrder = new ArrayList<>();
+    private final Map<String, TagIndex> tags = new HashMap<>();
+    // for queries from a point in time: per second in which records were published, an offset after all of them
+    private final TreeMap<Long, Long> offsetsBySecond = new TreeMap<>();
+
+    // owned by the writer thread after startup
+    private Segment current;
+    private ByteBuffer currentWriteBuffer;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean isClosed = false;
+
+    FileStore (Path dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+
+        try {
+            Files.createDirectories(dir);
+            final var files = Files.list(dir)
+                    .filter(f -> f.getFileName().toString().matches("segment-\\d+\\.log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+            for (int i=0; i<files.size(); i++)
+                scan(files.get(i), i == files.size() - 1);
+            if (segments.isEmpty())
+                roll();
+            else {
+                current = segments.lastEntry().getValue();
+                currentWriteBuffer = current.buffer.duplicate();
+            }
+            offsetsBySecond.put(System.currentTimeMillis() / 1000, position(current.id, current.size) - 1);
+        }
+        catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+        log.info("opened file journal in {}: {} segments, {} persistence ids", dir, segments.size(), persistenceIds.size());
+
+        writer = new Thread(this::writeLoop, "file-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //--------------------------------------- writing
+
+    CompletionStage<Void> write (List<Event> events) {
+        return enqueue(new WriteRequest(events));
+    }
+
+    CompletionStage<Void> delete (String persistenceId, long toSequenceNr) {
+        return enqueue(new DeleteRequest(persistenceId, toSequenceNr));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the event does not fit into a segment
+     */
+    void checkSize (Event event) {
+        if (encode(EVENT, event.persistenceId, event.sequenceNr, event.tags, event.payload).length > segmentSize - 4)
+            throw new IllegalArgumentException("event of " + event.payload.length + " bytes exceeds segment size");
+    }
+
+    private CompletionStage<Void> enqueue (Request request) {
+        if (isClosed)
+            request.done.completeExceptionally(new IllegalStateException("file journal is closed"));
+        else
+            queue.add(request);
+        return request.done;
+    }
+
+    void close () {
+        isClosed = true;
+        writer.interrupt();
+        try {
+            writer.join();
+        }
+        catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop () {
+        final var batch = new ArrayList<Request>();
+        while (! isClosed) {
+            try {
+                batch.add(queue.take());
+            }
+            catch (InterruptedException exc) {
+                break;
+            }
+            queue.drainTo(batch);
+
+            try {
+                final var appended = new ArrayList<Runnable>();
+                for (Request request: batch)
+                    appended.add(append(request, batch));
+                current.buffer.force();
+
+                synchronized (this) {
+                    appended.forEach(Runnable::run);
+                    offsetsBySecond.put(System.currentTimeMillis() / 1000, position(current.id, current.size) - 1);
+                    removeDeletedSegments();
+                }
+                for (Request request: batch)
+                    request.done.complete(null);
+            }
+            catch (Exception exc) {
+                log.error("writing to file journal failed", exc);
+                for (Request request: batch)
+                    request.done.completeExceptionally(exc);
+            }
+            batch.clear();
+        }
+
+        for (Request request: queue)
+            request.done.completeExceptionally(new IllegalStateException("file journal is closed"));
+    }
+
+    /**
+     * appends a request's records, returning the index update that makes them visible
+     */
+    private Runnable append (Request request, List<Request> batch) throws IOException {
+        if (request instanceof WriteRequest) {
+            final var events = ((WriteRequest) request).events;
+            final var positions = new long[events.size()];
+            for (int i=0; i<positions.length; i++) {
+                final var event = events.get(i);
+                positions[i] = append(encode(EVENT, event.persistenceId, event.sequenceNr, event.tags, event.payload));
+            }
+            return () -> {
+                for (int i=0; i<positions.length; i++)
+                    indexEvent(events.get(i), positions[i]);
+            };
+        }
+        else {
+            // a marker must not claim a higher sequence number than was written, see indexDeletion
+            final var delete = (DeleteRequest) request;
+            final long toSequenceNr = Math.min(delete.toSequenceNr, appendedHighestSequenceNr(delete.persistenceId, batch));
+            if (toSequenceNr <= 0)
+                return () -> {};
+            final long position = append(encode(DELETION, delete.persistenceId, toSequenceNr, List.of(), new byte[0]));
+            return () -> indexDeletion(delete.persistenceId, toSequenceNr, segmentOf(position));
+        }
+    }
+
+    /**
+     * the highest sequence number written for the persistence id, including the batch that is being appended; the
+     *  index is only changed by the writer thread, so it can read it without the lock
+     */
+    private long appendedHighestSequenceNr (String persistenceId, List<Request> batch) {
+        final var index = persistenceIds.get(persistenceId);
+        long result = index == null ? 0 : index.highestSequenceNr;
+        for (Request request: batch) {
+            if (request instanceof WriteRequest)
+                for (Event event: ((WriteRequest) request).events)
+                    if (event.persistenceId.equals(persistenceId))
+                        result = Math.max(result, event.sequenceNr);
+        }
+        return result;
+    }
+
+    private long append (byte[] record) throws IOException {
+        // leave room for the terminating zero length
+        if (current.size + record.length > segmentSize - 4)
+            roll();
+
+        final long position = position(current.id, current.size);
+        currentWriteBuffer.position(current.size);
+        currentWriteBuffer.put(record);
+        current.size += record.length;
+        return position;
+    }
+
+    private void roll () throws IOException {
+        if (current != null)
+            current.buffer.force();
+
+        final int id = current == null ? 1 : current.id + 1;
+        final var file = dir.resolve(String.format("segment-%012d.log", id));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(segmentSize);
+            final var buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            raf.getChannel().force(true);
+
+            final var segment = new Segment(id, file, buffer);
+            synchronized (this) {
+                segments.put(id, segment);
+            }
+            current = segment;
+            currentWriteBuffer = buffer.duplicate();
+        }
+    }
+
+    /**
+     * Removes the oldest segments as long as all their events are deleted. Removing segments oldest first is safe for
+     *  the deletion markers they contain: those refer to events in the same or older segments only. A persistence id
+     *  whose last record is in a removed segment gets a new marker though, so its highest sequence number is not lost.
+     */
+    private void removeDeletedSegments () throws IOException {
+        while (segments.size() > 1) {
+            final var oldest = segments.firstEntry().getValue();
+            if (oldest.liveEvents > 0 || oldest == current)
+                return;
+
+            for (Map.Entry<String, PersistenceIdIndex> e: persistenceIds.entrySet()) {
+                final var index = e.getValue();
+                if (index.lastRecordSegment == oldest.id) {
+                    append(encode(DELETION, e.getKey(), index.highestSequenceNr, List.of(), new byte[0]));
+                    index.lastRecordSegment = current.id;
+                }
+            }
+            current.buffer.force();
+
+            segments.remove(oldest.id);
+            while (offsetsBySecond.size() > 1 && segmentOf(offsetsBySecond.higherEntry(offsetsBySecond.firstKey()).getValue()) < segments.firstKey())
+                offsetsBySecond.pollFirstEntry();
+            for (TagIndex tagIndex: tags.values()) {
+                int numRemoved = 0;
+                while (numRemoved < tagIndex.count && segmentOf(tagIndex.positions[numRemoved]) == oldest.id)
+                    numRemoved++;
+                System.arraycopy(tagIndex.positions, numRemoved, tagIndex.positions, 0, tagIndex.count - numRemoved);
+                tagIndex.count -= numRemoved;
+            }
+            Files.delete(oldest.file);
+            log.debug("removed segment {}", oldest.file);
+        }
+    }
+
+    //--------------------------------------- index
+
+    private void indexEvent (Event event, long position) {
+        var index = persistenceIds.get(event.persistenceId);
+        if (index == null) {
+            index = new PersistenceIdIndex();
+            persistenceIds.put(event.persistenceId, index);
+            persistenceIdsInOrder.add(event.persistenceId);
+        }
+        index.add(event.sequenceNr, position);
+        index.lastRecordSegment = segmentOf(position);
+        segments.get(segmentOf(position)).liveEvents++;
+
+        for (String tag: event.tags)
+            tags.computeIfAbsent(tag, x -> new TagIndex()).add(position);
+    }
+
+    private void indexDeletion (String persistenceId, long toSequenceNr, int segment) {
+        var index = persistenceIds.get(persistenceId);
+        if (index == null) {
+            // on startup, for a persistence id all of whose events were in removed segments
+            index = new PersistenceIdIndex();
+            index.highestSequenceNr = toSequenceNr;
+            index.deletedTo = toSequenceNr;
+            persistenceIds.put(persistenceId, index);
+            persistenceIdsInOrder.add(persistenceId);
+        }
+
+        final long to = Math.min(toSequenceNr, index.highestSequenceNr);
+        for (long seqNr = Math.max(index.deletedTo + 1, index.firstSequenceNr); seqNr <= to; seqNr++) {
+            final long position = index.position(seqNr);
+            if (position != 0)
+                segments.get(segmentOf(position)).liveEvents--;
+        }
+        index.deletedTo = Math.max(index.deletedTo, to);
+        index.lastRecordSegment = segment;
+        index.trim();
+    }
+
+    private static long position (int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+    private static int segmentOf (long position) {
+        return (int) (position >>> 32);
+    }
+    private static int offsetOf (long position) {
+        return (int) position;
+    }
+
+    //--------------------------------------- reading
+
+    synchronized long highestSequenceNr (String persistenceId) {
+        final var index = persistenceIds.get(persistenceId);
+        return index == null ? 0 : index.highestSequenceNr;
+    }
+
+    /**
+     * up to {@code max} events with sequence numbers from {@code fromSequenceNr} to {@code toSequenceNr}, skipping deleted
+     *  events and gaps
+     */
+    List<Event> events (String persistenceId, long fromSequenceNr, long toSequenceNr, int max) {
+        final var positions = new ArrayList<Long>();
+        synchronized (this) {
+            final var index = persistenceIds.get(persistenceId);
+            if (index == null)
+                return List.of();
+
+            final long to = Math.min(toSequenceNr, index.highestSequenceNr);
+            for (long seqNr = Math.max(fromSequenceNr, index.deletedTo + 1); seqNr <= to && positions.size() < max; seqNr++) {
+                final long position = index.position(seqNr);
+                if (position != 0)
+                    positions.add(position);
+            }
+        }
+        final var result = new ArrayList<Event>(positions.size());
+        for (long position: positions) {
+            final var event = read(position);
+            if (event == null)
+                // deletion is up to a sequence number, so the events read before this one were deleted as well
+                result.clear();
+            else
+                result.add(event);
+        }
+        return result;
+    }
+
+    /**
+     * up to {@code max} events with the tag, in the order they were written, starting after {@code afterOffset}. An
+     *  event's offset is its record's position, which is stable across restarts and segment removal.
+     */
+    List<TaggedEvent> eventsByTag (String tag, long afterOffset, int max) {
+        final var positions = new ArrayList<Long>();
+        synchronized (this) {
+            final var index = tags.get(tag);
+            if (index == null)
+                return List.of();
+
+            final int found = Arrays.binarySearch(index.positions, 0, index.count, afterOffset);
+            final int first = found >= 0 ? found + 1 : -found - 1;
+            for (int i=first; i<index.count && positions.size() < max; i++)
+                positions.add(index.positions[i]);
+        }
+
+        final var result = new ArrayList<TaggedEvent>(positions.size());
+        for (long position: positions) {
+            final var event = read(position);
+            if (event != null)
+                result.add(new TaggedEvent(position, event));
+        }
+        return result;
+    }
+
+    /**
+     * the offset of the last event with the tag that was written so far, or 0 if there is none
+     */
+    synchronized long lastTagOffset (String tag) {
+        final var index = tags.get(tag);
+        return index == null || index.count == 0 ? 0 : index.positions[index.count - 1];
+    }
+
+    /**
+     * an offset for {@link #eventsByTag} that includes all events written at or after {@code epochMillis}, and possibly
+     *  those of up to a second before
+     */
+    synchronized long offsetAt (long epochMillis) {
+        final var entry = offsetsBySecond.lowerEntry(epochMillis / 1000);
+        return entry == null ? 0 : entry.getValue();
+    }
+
+    synchronized int numPersistenceIds () {
+        return persistenceIdsInOrder.size();
+    }
+
+    /**
+     * persistence ids in the order they were first written, starting at index {@code from}
+     */
+    synchronized List<String> persistenceIds (int from, int max) {
+        if (from >= persistenceIdsInOrder.size())
+            return List.of();
+        return new ArrayList<>(persistenceIdsInOrder.subList(from, Math.min(persistenceIdsInOrder.size(), from + max)));
+    }
+
+    /**
+     * The positions are looked up under the lock and read outside of it, so the segment may have been removed in
+     *  between. All events in a removed segment were deleted, so such an event is skipped: null.
+     */
+    private Event read (long position) {
+        final Segment segment;
+        synchronized (this) {
+            segment = segments.get(segmentOf(position));
+        }
+        if (segment == null)
+            return null;
+        final var buffer = segment.buffer.duplicate();
+        buffer.position(offsetOf(position));
+        final int length = buffer.getInt();
+        buffer.getInt();
+        buffer.limit(buffer.position() + length);
+        return decode(buffer);
+    }
+
+    //--------------------------------------- startup
+
+    private void scan (Path file, boolean isLast) throws IOException {
+        final int id = Integer.parseInt(file.getFileName().toString().replaceAll("\\D", ""));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            final var buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            final var segment = new Segment(id, file, buffer);
+            segments.put(id, segment);
+
+            int offset = 0;
+            while (offset + HEADER_SIZE <= buffer.capacity()) {
+                final int length = buffer.getInt(offset);
+                if (length <= 0 || offset + HEADER_SIZE + length > buffer.capacity())
+                    break;
+
+                final var body = new byte[length];
+                buffer.position(offset + HEADER_SIZE);
+                buffer.get(body);
+                final var crc = new CRC32();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                    if (! isLast)
+                        throw new IOException("corrupt record in " + file + " at offset " + offset);
+
+                    // a write that was interrupted by a crash, and was therefore never acknowledged
+                    log.warn("truncating {} at offset {}", file, offset);
+                    for (int i=offset; i<buffer.capacity(); i++) buffer.put(i, (byte) 0);
+                    buffer.force();
+                    break;
+                }
+
+                final long position = position(id, offset);
+                final var bodyBuffer = ByteBuffer.wrap(body);
+                if (body[0] == EVENT)
+                    indexEvent(decode(bodyBuffer), position);
+                else {
+                    bodyBuffer.get();
+                    final var persistenceId = readString(bodyBuffer);
+                    indexDeletion(persistenceId, bodyBuffer.getLong(), id);
+                }
+                offset += HEADER_SIZE + length;
+            }
+            segment.size = offset;
+            buffer.position(0);
+        }
+    }
+
+    //--------------------------------------- encoding
+
+    private static byte[] encode (byte type, String persistenceId, long sequenceNr, Collection<String> tags, byte[] payload) {
+        final var persistenceIdBytes = persistenceId.getBytes(StandardCharsets.UTF_8);
+        final var tagBytes = new ArrayList<byte[]>(tags.size());
+        int length = 1 + 2 + persistenceIdBytes.length + 8;
+        if (type == EVENT) {
+            length += 1;
+            for (String tag: tags) {
+                final var bytes = tag.getBytes(StandardCharsets.UTF_8);
+                tagBytes.add(bytes);
+                length += 2 + bytes.length;
+            }
+            length += 4 + payload.length;
+        }
+
+        final var result = ByteBuffer.allocate(HEADER_SIZE + length);
+        result.putInt(length);
+        result.putInt(0);
+        result.put(type);
+        result.putShort((short) persistenceIdBytes.length).put(persistenceIdBytes);
+        result.putLong(sequenceNr);
+        if (type == EVENT) {
+            result.put((byte) tagBytes.size());
+            for (byte[] bytes: tagBytes)
+                result.putShort((short) bytes.length).put(bytes);
+            result.putInt(payload.length).put(payload);
+        }
+
+        final var crc = new CRC32();
+        crc.update(result.array(), HEADER_SIZE, length);
+        result.putInt(4, (int) crc.getValue());
+        return result.array();
+    }
+
+    private static Event decode (ByteBuffer body) {
+        body.get();
+        final var persistenceId = readString(body);
+        final long sequenceNr = body.getLong();
+        final int numTags = body.get();
+        final var tags = new ArrayList<String>(numTags);
+        for (int i=0; i<numTags; i++)
+            tags.add(readString(body));
+        final var payload = new byte[body.getInt()];
+        body.get(payload);
+        return new Event(persistenceId, sequenceNr, tags, payload);
+    }
+
+    private static String readString (ByteBuffer buffer) {
+        final var bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package de.arnohaase.corebanking.journal;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import com.typesafe.config.Config;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Registry of open {@link FileStore}s by directory, so the journal and the query plugin share the same store and index.
+ *  Stores are shared by all actor systems in the JVM, so several nodes in one JVM (e.g. for load tests) can use the
+ *  same journal. A store is closed when the last actor system using it terminates.
+ */
+class FileStores implements Extension {
+    private static final Provider PROVIDER = new Provider();
+
+    static FileStores get (ActorSystem system) {
+        return PROVIDER.get(system);
+    }
+
+    private static class Shared {
+        final FileStore store;
+        int numSystems = 0;
+
+        Shared (FileStore store) {
+            this.store = store;
+        }
+    }
+
+    private static final Map<Path, Shared> stores = new HashMap<>();
+
+    private final ActorSystem system;
+    private final ConcurrentHashMap<Path, FileStore> opened = new ConcurrentHashMap<>();
+
+    private FileStores (ActorSystem system) {
+        this.system = system;
+    }
+
+    /**
+     * @param journalConfig the journal plugin's configuration
+     */
+    FileStore open (Config journalConfig) {
+        final var dir = Paths.get(journalConfig.getString("dir")).toAbsolutePath();
+        final int segmentSize = (int) Math.min(Integer.MAX_VALUE, journalConfig.getBytes("segment-size"));
+
+        return opened.computeIfAbsent(dir, x -> {
+            synchronized (stores) {
+                final var shared = stores.computeIfAbsent(dir, y -> new Shared(new FileStore(dir, segmentSize)));
+                shared.numSystems++;
+                system.registerOnTermination(() -> release(dir));
+                return shared.store;
+            }
+        });
+    }
+
+    private static void release (Path dir) {
+        synchronized (stores) {
+            final var shared = stores.get(dir);
+            if (--shared.numSystems == 0) {
+                stores.remove(dir);
+                shared.store.close();
+            }
+        }
+    }
+
+    private static class Provider extends AbstractExtensionId<FileStores> implements ExtensionIdProvider {
+        @Override public Provider lookup () {
+            return PROVIDER;
+        }
+
+        @Override public FileStores createExtension (ExtendedActorSystem system) {
+            return new FileStores(system);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package de.arnohaase.corebanking.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+public class Counter {
+    private final LongAdder count = new LongAdder();
+
+    public void increment () {
+        count.increment();
+    }
+
+    public void add (long n) {
+        count.add(n);
+    }
+
+    public long count () {
+        return count.sum();
+    }
+}
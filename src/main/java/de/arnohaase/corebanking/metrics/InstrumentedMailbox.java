@@ -0,0 +1,67 @@
+package de.arnohaase.corebanking.metrics;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedDequeBasedMessageQueue;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * An unbounded mailbox that reports the number of queued messages, summed over all actors using the mailbox
+ *  configuration, as gauge 'mailbox_depth{mailbox="<name>"}', and the number of messages enqueued as counter
+ *  'mailbox_messages{mailbox="<name>"}'. It is deque based, so it can be used by actors that stash, e.g. persistent
+ *  actors; unstashed messages are not counted again.
+ */
+public class InstrumentedMailbox implements MailboxType, ProducesMessageQueue<InstrumentedMailbox.Queue> {
+    private final String name;
+
+    public InstrumentedMailbox (ActorSystem.Settings settings, Config config) {
+        this.name = config.getString("name");
+    }
+
+    @Override public MessageQueue create (Option<ActorRef> owner, Option<ActorSystem> system) {
+        final var metrics = Metrics.get(system.get());
+        return new Queue(metrics.level("mailbox_depth{mailbox=\"" + name + "\"}"), metrics.counter("mailbox_messages{mailbox=\"" + name + "\"}"));
+    }
+
+    public static class Queue extends LinkedBlockingDeque<Envelope> implements UnboundedDequeBasedMessageQueue {
+        private final LongAdder depth;
+        private final Counter messages;
+
+        Queue (LongAdder depth, Counter messages) {
+            this.depth = depth;
+            this.messages = messages;
+        }
+
+        @Override public BlockingDeque<Envelope> queue () {
+            return this;
+        }
+
+        @Override public void enqueue (ActorRef receiver, Envelope handle) {
+            offer(handle);
+            depth.increment();
+            messages.increment();
+        }
+
+        @Override public void enqueueFirst (ActorRef receiver, Envelope handle) {
+            offerFirst(handle);
+            depth.increment();
+        }
+
+        @Override public Envelope dequeue () {
+            final var result = poll();
+            if (result != null)
+                depth.decrement();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package de.arnohaase.corebanking.metrics;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Per actor system registry of named metrics. Recording a value is lock free, so it can be done from actors' message
+ *  handlers.
+ *
+ * Names follow Prometheus conventions and may carry labels, e.g. 'http_ask{route="deposit"}'; see
+ *  {@link PrometheusFormat}.
+ */
+public class Metrics implements Extension {
+    private static final Provider PROVIDER = new Provider();
+
+    public static Metrics get (ActorSystem system) {
+        return PROVIDER.get(system);
+    }
+
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> levels = new ConcurrentHashMap<>();
+
+    public Timer timer (String name) {
+        return timers.computeIfAbsent(name, x -> new Timer());
+    }
+    public Counter counter (String name) {
+        return counters.computeIfAbsent(name, x -> new Counter());
+    }
+
+    /**
+     * registers a value that is read when metrics are reported, replacing a previous registration with the same name
+     */
+    public void gauge (String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * a value that is added to and subtracted from concurrently, e.g. a sum of queue lengths, reported as a gauge
+     */
+    public LongAdder level (String name) {
+        return levels.computeIfAbsent(name, x -> {
+            final var result = new LongAdder();
+            gauge(name, result::sum);
+            return result;
+        });
+    }
+
+    /**
+     * times stages with timer 'name', counting failures with counter 'name_failures' and ask timeouts among them with
+     *  'name_timeouts'. Callers on a hot path keep the result rather than calling this per stage.
+     */
+    public StageTimer stageTimer (String name) {
+        return new StageTimer(timer(name), counter(PrometheusFormat.withSuffix(name, "_failures")), counter(PrometheusFormat.withSuffix(name, "_timeouts")));
+    }
+
+    public Map<String, Timer> timers () {
+        return new TreeMap<>(timers);
+    }
+    public Map<String, Counter> counters () {
+        return new TreeMap<>(counters);
+    }
+    public Map<String, LongSupplier> gauges () {
+        return new TreeMap<>(gauges);
+    }
+
+    private static class Provider extends AbstractExtensionId<Metrics> implements ExtensionIdProvider {
+        @Override public Provider lookup () {
+            return PROVIDER;
+        }
+
+        @Override public Metrics createExtension (ExtendedActorSystem system) {
+            return new Metrics();
+        }
+    }
+}
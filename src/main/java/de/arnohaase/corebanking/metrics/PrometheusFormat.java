@@ -0,0 +1,94 @@
+package de.arnohaase.corebanking.metrics;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Renders a {@link Metrics} registry in Prometheus' text exposition format. Timers become histograms in seconds,
+ *  with an additional '_max' gauge.
+ */
+public class PrometheusFormat {
+    public static String format (Metrics metrics) {
+        final var out = new StringBuilder(4096);
+
+        forEachFamily(metrics.counters(), (family, entries) -> {
+            out.append("# TYPE ").append(family).append(" counter\n");
+            entries.forEach((name, counter) -> sample(out, name, "", "", counter.count()));
+        });
+        forEachFamily(metrics.gauges(), (family, entries) -> {
+            out.append("# TYPE ").append(family).append(" gauge\n");
+            entries.forEach((name, gauge) -> sample(out, name, "", "", ((LongSupplier) gauge).getAsLong()));
+        });
+        forEachFamily(metrics.timers(), (family, entries) -> {
+            out.append("# TYPE ").append(family).append("_seconds histogram\n");
+            entries.forEach((name, timer) -> {
+                final var counts = timer.bucketCounts();
+                long cumulative = 0;
+                for (int i=0; i<counts.length; i++) {
+                    cumulative += counts[i];
+                    final var le = i < Timer.BUCKET_BOUNDS_NANOS.length ? seconds(Timer.BUCKET_BOUNDS_NANOS[i]) : "+Inf";
+                    sample(out, name, "_seconds_bucket", "le=\"" + le + "\"", cumulative);
+                }
+                sample(out, name, "_seconds_sum", "", seconds(timer.totalNanos()));
+                sample(out, name, "_seconds_count", "", timer.count());
+            });
+            out.append("# TYPE ").append(family).append("_seconds_max gauge\n");
+            entries.forEach((name, timer) -> sample(out, name, "_seconds_max", "", seconds(timer.maxNanos())));
+        });
+        return out.toString();
+    }
+
+    /**
+     * inserts a suffix between a metric's family name and its labels
+     */
+    public static String withSuffix (String name, String suffix) {
+        return family(name) + suffix + labels(name);
+    }
+
+    private interface FamilyConsumer<T> {
+        void accept (String family, Map<String, T> entries);
+    }
+
+    /**
+     * groups metrics by family, i.e. by name without labels, since a family's TYPE line must precede all its samples
+     */
+    private static <T> void forEachFamily (Map<String, T> metrics, FamilyConsumer<T> consumer) {
+        final var families = new TreeMap<String, Map<String, T>>();
+        metrics.forEach((name, metric) -> families.computeIfAbsent(family(name), x -> new TreeMap<>()).put(name, metric));
+        families.forEach(consumer::accept);
+    }
+
+    private static void sample (StringBuilder out, String name, String suffix, String extraLabel, Object value) {
+        out.append(family(name)).append(suffix);
+
+        final List<String> labels = new ArrayList<>();
+        final var ownLabels = labels(name);
+        if (! ownLabels.isEmpty())
+            labels.add(ownLabels.substring(1, ownLabels.length() - 1));
+        if (! extraLabel.isEmpty())
+            labels.add(extraLabel);
+        if (! labels.isEmpty())
+            out.append('{').append(String.join(",", labels)).append('}');
+
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String family (String name) {
+        final int idx = name.indexOf('{');
+        return idx < 0 ? name : name.substring(0, idx);
+    }
+
+    private static String labels (String name) {
+        final int idx = name.indexOf('{');
+        return idx < 0 ? "" : name.substring(idx);
+    }
+
+    private static String seconds (long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,34 @@
+package de.arnohaase.corebanking.metrics;
+
+import akka.pattern.AskTimeoutException;
+
+import java.util.concurrent.CompletionStage;
+
+
+/**
+ * Records the time until stages complete, and counts their failures and the ask timeouts among them. Its metrics are
+ *  looked up once, so timing a stage does not touch the registry.
+ */
+public class StageTimer {
+    private final Timer timer;
+    private final Counter failures;
+    private final Counter timeouts;
+
+    StageTimer (Timer timer, Counter failures, Counter timeouts) {
+        this.timer = timer;
+        this.failures = failures;
+        this.timeouts = timeouts;
+    }
+
+    public <T> CompletionStage<T> time (CompletionStage<T> stage) {
+        final long startNanos = System.nanoTime();
+        return stage.whenComplete((result, exc) -> {
+            timer.record(System.nanoTime() - startNanos);
+            if (exc != null) {
+                failures.increment();
+                if (exc instanceof AskTimeoutException || exc.getCause() instanceof AskTimeoutException)
+                    timeouts.increment();
+            }
+        });
+    }
+}
@@ -0,0 +1,62 @@
+package de.arnohaase.corebanking.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Durations as a histogram with fixed buckets, so recording is lock free and needs no allocation
+ */
+public class Timer {
+    /**
+     * upper bounds of the buckets; the last bucket has no upper bound
+     */
+    public static final long[] BUCKET_BOUNDS_NANOS = {
+            TimeUnit.MICROSECONDS.toNanos(100), TimeUnit.MICROSECONDS.toNanos(250), TimeUnit.MICROSECONDS.toNanos(500),
+            TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(2), TimeUnit.MILLISECONDS.toNanos(5),
+            TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(25), TimeUnit.MILLISECONDS.toNanos(50),
+            TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(250), TimeUnit.MILLISECONDS.toNanos(500),
+            TimeUnit.SECONDS.toNanos(1), TimeUnit.SECONDS.toNanos(2), TimeUnit.SECONDS.toNanos(5),
+            TimeUnit.SECONDS.toNanos(10), TimeUnit.SECONDS.toNanos(30), TimeUnit.SECONDS.toNanos(60)
+    };
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+
+    public Timer () {
+        for (int i=0; i<buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    public void record (long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_NANOS.length && nanos > BUCKET_BOUNDS_NANOS[bucket])
+            bucket++;
+        buckets[bucket].increment();
+    }
+
+    public long count () {
+        return count.sum();
+    }
+    public long totalNanos () {
+        return totalNanos.sum();
+    }
+    public long maxNanos () {
+        return maxNanos.get();
+    }
+
+    /**
+     * the number of recorded durations per bucket, see {@link #BUCKET_BOUNDS_NANOS}
+     */
+    public long[] bucketCounts () {
+        final var result = new long[buckets.length];
+        for (int i=0; i<buckets.length; i++) result[i] = buckets[i].sum();
+        return result;
+    }
+}
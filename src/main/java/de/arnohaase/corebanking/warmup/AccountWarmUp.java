@@ -0,0 +1,303 @@
+package de.arnohaase.corebanking.warmup;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.cluster.sharding.ShardRegion;
+import akka.pattern.PatternsCS;
+import com.typesafe.config.Config;
+import de.arnohaase.corebanking.accounts.ImmutableWarmUp;
+import de.arnohaase.corebanking.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Starts a node's hot accounts before clients ask for them, so the first requests after a deploy or a rebalance do
+ *  not all pay for recovering their accounts. Account entities record their uses in {@link HotAccounts}, and every
+ *  'save-interval' the hot lists of the shards on this node are saved, see {@link ShardHotList}.
+ *
+ * The local shard region is polled for shards that were allocated on this node. A new shard's hot list is loaded, and
+ *  its accounts are started by sending them {@link de.arnohaase.corebanking.accounts.AccountMessages.WarmUp}. On
+ *  startup, the hot lists of all shards are loaded, and each shard with a hot list is allocated by starting its
+ *  hottest account, wherever the coordinator puts it. Loading lists and starting accounts share a bound of 'rate'
+ *  per second and 'max-in-flight' at a time, so warming up leaves the journal capacity for client requests.
+ *
+ * The node is ready once the startup scan is done and the given fraction of the accounts it scheduled for warm-up
+ *  answered or failed, or after 'ready-timeout' at the latest.
+ */
+public class AccountWarmUp extends AbstractActorWithTimers {
+    public static final Object GET_STATUS = "get-status";
+
+    private static final Object TICK = "tick";
+    private static final Object POLL = "poll";
+    private static final Object SAVE = "save";
+    private static final long TICK_MILLIS = 100;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    public static ActorRef start (ActorSystem system, ActorRef accounts) {
+        return system.actorOf(props(accounts), "account-warm-up");
+    }
+
+    private static Props props (ActorRef accounts) {
+        return Props.create(AccountWarmUp.class, () -> new AccountWarmUp(accounts))
+                .withDispatcher("core-banking.dispatchers.batch");
+    }
+
+    /**
+     * the outcome of starting an account
+     */
+    private static class Warmed {
+        final boolean success;
+
+        Warmed (boolean success) {
+            this.success = success;
+        }
+    }
+
+    private final ActorRef accounts;
+    private final HotAccounts hotAccounts;
+
+    private final double permitsPerTick;
+    private final int maxInFlight;
+    private final double readyThreshold;
+    private final long readyTimeoutNanos;
+    private final long askTimeoutMillis;
+
+    // shards whose hot lists are to be loaded, and accounts to be started, in this order
+    private final Queue<String> shardsToLoad = new ArrayDeque<>();
+    private final Queue<UUID> accountsToWarm = new ArrayDeque<>();
+    private double permits = 0;
+    private int inFlight = 0;
+
+    private final Set<String> localShards = new HashSet<>();
+    private final Set<String> scheduledShards = new HashSet<>();
+    // hot lists of local shards, and of shards in the startup scan until they are loaded
+    private final Map<String, ActorRef> hotLists = new HashMap<>();
+    private final Set<String> loading = new HashSet<>();
+
+    private final Set<String> scanPending = new HashSet<>();
+    // hot lists that were loaded in the startup scan for shards that were not yet allocated on this node
+    private final Map<String, List<UUID>> scanned = new HashMap<>();
+    private boolean isPolled = false;
+
+    private final long startNanos = System.nanoTime();
+    private long scheduled = 0;
+    private long warmed = 0;
+    private long failed = 0;
+    private boolean isReady = false;
+
+    private AccountWarmUp (ActorRef accounts) {
+        this.accounts = accounts;
+        this.hotAccounts = HotAccounts.get(context().system());
+
+        final Config config = context().system().settings().config().getConfig("core-banking.warm-up");
+        final int numShards = context().system().settings().config().getInt("core-banking.accounts.shards");
+        this.permitsPerTick = config.getInt("rate") * TICK_MILLIS / 1000.0;
+        this.maxInFlight = config.getInt("max-in-flight");
+        this.readyThreshold = config.getDouble("ready-threshold");
+        this.readyTimeoutNanos = config.getDuration("ready-timeout").toNanos();
+        this.askTimeoutMillis = config.getDuration("ask-timeout").toMillis();
+
+        if (config.getBoolean("allocate-on-start"))
+            for (int i=0; i<numShards; i++) shardsToLoad.add(String.valueOf(i));
+        scanPending.addAll(shardsToLoad);
+
+        final var metrics = Metrics.get(context().system());
+        metrics.gauge("warm_up_ready", () -> isReady ? 1 : 0);
+
+        timers().startPeriodicTimer(TICK, TICK, FiniteDuration.apply(TICK_MILLIS, TimeUnit.MILLISECONDS));
+        timers().startPeriodicTimer(POLL, POLL, duration(config, "poll-interval"));
+        timers().startPeriodicTimer(SAVE, SAVE, duration(config, "save-interval"));
+    }
+
+    private static FiniteDuration duration (Config config, String path) {
+        return FiniteDuration.apply(config.getDuration(path).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override public Receive createReceive () {
+        return receiveBuilder()
+                .matchEquals(TICK, msg -> onTick())
+                .matchEquals(POLL, msg -> accounts.tell(ShardRegion.getShardRegionStateInstance(), self()))
+                .match(ShardRegion.CurrentShardRegionState.class, this::onShardRegionState)
+                .matchEquals(SAVE, msg -> onSave())
+                .match(WarmUpMessages.HotList.class, this::onHotListLoaded)
+                .match(Terminated.class, this::onHotListTerminated)
+                .match(Warmed.class, this::onWarmed)
+                .matchEquals(GET_STATUS, msg -> sender().tell(status(), self()))
+                .build();
+    }
+
+    private void onTick () {
+        permits = Math.min(permits + permitsPerTick, Math.max(1, permitsPerTick));
+        while (permits >= 1 && inFlight < maxInFlight && ! (shardsToLoad.isEmpty() && accountsToWarm.isEmpty())) {
+            permits -= 1;
+            inFlight += 1;
+            if (! shardsToLoad.isEmpty())
+                loadHotList(shardsToLoad.poll());
+            else
+                warm(accountsToWarm.poll());
+        }
+        checkReady();
+    }
+
+    private void loadHotList (String shardId) {
+        if (hotLists.containsKey(shardId)) {
+            // queued again, e.g. by the scan and when the shard was allocated
+            inFlight -= 1;
+            if (! loading.contains(shardId))
+                scanPending.remove(shardId);
+            return;
+        }
+        loading.add(shardId);
+        // a shard's previous hot list actor may still be stopping, so the actor is not named after the shard
+        hotLists.put(shardId, context().watch(context().actorOf(ShardHotList.props(shardId))));
+    }
+
+    private void warm (UUID accountId) {
+        final var warmed = PatternsCS.ask(accounts, ImmutableWarmUp.of(accountId), askTimeoutMillis)
+                .handle((result, exc) -> new Warmed(exc == null));
+        PatternsCS.pipe(warmed, context().dispatcher()).to(self());
+    }
+
+    private void onWarmed (Warmed msg) {
+        inFlight -= 1;
+        if (msg.success)
+            warmed += 1;
+        else
+            failed += 1;
+        checkReady();
+    }
+
+    private void onHotListLoaded (WarmUpMessages.HotList msg) {
+        final var shardId = msg.shardId();
+        if (! sender().equals(hotLists.get(shardId)))
+            return; // from a hot list actor that was stopped in the meantime
+        if (loading.remove(shardId))
+            inFlight -= 1;
+        final boolean isScan = scanPending.remove(shardId);
+
+        if (localShards.contains(shardId))
+            schedule(shardId, msg.accounts());
+        else {
+            // the scan allocates the shard by starting its hottest account; the rest follows where it is allocated
+            if (isScan && ! msg.accounts().isEmpty()) {
+                scanned.put(shardId, msg.accounts());
+                accountsToWarm.add(msg.accounts().get(0));
+                scheduled += 1;
+            }
+            final var hotList = hotLists.remove(shardId);
+            if (hotList != null) {
+                context().unwatch(hotList);
+                context().stop(hotList);
+            }
+        }
+        checkReady();
+    }
+
+    private void onHotListTerminated (Terminated msg) {
+        final var shardId = hotLists.entrySet().stream()
+                .filter(e -> e.getValue().equals(msg.actor()))
+                .map(Map.Entry::getKey)
+                .findAny().orElse(null);
+        if (shardId != null) {
+            hotLists.remove(shardId);
+            log.warn("the hot list of shard {} stopped", shardId);
+            if (loading.remove(shardId))
+                inFlight -= 1;
+            scanPending.remove(shardId);
+        }
+    }
+
+    private void schedule (String shardId, List<UUID> hottest) {
+        if (scheduledShards.add(shardId)) {
+            accountsToWarm.addAll(hottest);
+            scheduled += hottest.size();
+        }
+    }
+
+    private void onShardRegionState (ShardRegion.CurrentShardRegionState msg) {
+        isPolled = true;
+        final var current = new HashSet<String>();
+        for (ShardRegion.ShardState shard: msg.getShards())
+            current.add(shard.shardId());
+
+        for (String shardId: current) {
+            if (localShards.add(shardId)) {
+                // the scan's hottest account may have allocated the shard here; its hot list is needed for saving
+                final var hottest = scanned.remove(shardId);
+                if (hottest != null)
+                    schedule(shardId, hottest.subList(1, hottest.size()));
+                if (! hotLists.containsKey(shardId))
+                    shardsToLoad.add(shardId);
+            }
+        }
+
+        for (String shardId: new HashSet<>(localShards)) {
+            if (! current.contains(shardId)) {
+                // the shard was handed over to another node, which takes over its hot list
+                localShards.remove(shardId);
+                scheduledShards.remove(shardId);
+                final var hotList = hotLists.remove(shardId);
+                if (hotList != null) {
+                    if (loading.remove(shardId))
+                        inFlight -= 1;
+                    hotList.tell(ImmutableHotList.of(shardId, hotAccounts.hottest(shardId)), self());
+                    context().unwatch(hotList);
+                    hotList.tell(PoisonPill.getInstance(), self());
+                }
+                hotAccounts.forget(shardId);
+            }
+        }
+        checkReady();
+    }
+
+    private void onSave () {
+        for (String shardId: localShards) {
+            final var hotList = hotLists.get(shardId);
+            if (hotList != null)
+                hotList.tell(ImmutableHotList.of(shardId, hotAccounts.hottest(shardId)), self());
+        }
+        hotAccounts.decay();
+    }
+
+    private void checkReady () {
+        if (isReady)
+            return;
+
+        final boolean reached = isPolled && scanPending.isEmpty() && (warmed + failed) >= readyThreshold * scheduled;
+        if (reached || System.nanoTime() - startNanos >= readyTimeoutNanos) {
+            isReady = true;
+            scanned.clear();
+            if (reached)
+                log.info("warm-up ready: started {} of {} hot accounts, {} failed", warmed, scheduled, failed);
+            else
+                log.warn("warm-up not done after the ready timeout: started {} of {} hot accounts, {} failed", warmed, scheduled, failed);
+        }
+    }
+
+    private WarmUpMessages.Status status () {
+        return ImmutableStatus.builder()
+                .ready(isReady)
+                .shards(localShards.size())
+                .scheduled(scheduled)
+                .warmed(warmed)
+                .failed(failed)
+                .build();
+    }
+}
@@ -0,0 +1,140 @@
+package de.arnohaase.corebanking.warmup;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import com.typesafe.config.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * The most frequently used accounts of each shard on this node. Uses are counted in a count-min sketch that all shards
+ *  share, and each shard keeps the 'top-k' accounts with the highest estimates. Counts are halved periodically, so the
+ *  estimates follow recent traffic rather than all traffic since the node started.
+ *
+ * Entities record their uses concurrently: the sketch's counters are atomic, and a shard's top accounts are guarded
+ *  by the shard's lock.
+ */
+public class HotAccounts implements Extension {
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L };
+
+    private static final Provider PROVIDER = new Provider();
+
+    public static HotAccounts get (ActorSystem system) {
+        return PROVIDER.get(system);
+    }
+
+    private final int width;
+    private final AtomicIntegerArray counts;
+    private final int topK;
+    private final Map<String, TopAccounts> shards = new ConcurrentHashMap<>();
+
+    private HotAccounts (Config config) {
+        this.width = Integer.highestOneBit(Math.max(1, config.getInt("sketch-width") - 1)) << 1;
+        this.counts = new AtomicIntegerArray(DEPTH * width);
+        this.topK = config.getInt("top-k");
+    }
+
+    public void record (String shardId, UUID accountId) {
+        final long bits = accountId.getMostSignificantBits() ^ accountId.getLeastSignificantBits();
+        int estimate = Integer.MAX_VALUE;
+        for (int row=0; row<DEPTH; row++) {
+            final int idx = row * width + ((int) ((bits * SEEDS[row]) >>> 40) & (width - 1));
+            estimate = Math.min(estimate, counts.incrementAndGet(idx));
+        }
+        shards.computeIfAbsent(shardId, x -> new TopAccounts(topK)).offer(accountId, estimate);
+    }
+
+    /**
+     * @return a shard's hottest accounts, hottest first
+     */
+    public List<UUID> hottest (String shardId) {
+        final var top = shards.get(shardId);
+        return top == null ? List.of() : top.sorted();
+    }
+
+    /**
+     * stops tracking a shard that is no longer allocated on this node
+     */
+    public void forget (String shardId) {
+        shards.remove(shardId);
+    }
+
+    /**
+     * halves all counts; concurrent uses may be halved or not, which does not matter for an estimate
+     */
+    public void decay () {
+        for (int i=0; i<counts.length(); i++)
+            counts.set(i, counts.get(i) >>> 1);
+        for (TopAccounts top: shards.values())
+            top.decay();
+    }
+
+    private static class TopAccounts {
+        private final int capacity;
+        private final Map<UUID, Integer> estimates = new HashMap<>();
+        // a lower bound for the lowest estimate once the map is full: estimates only grow between decays
+        private int min = 0;
+
+        TopAccounts (int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void offer (UUID accountId, int estimate) {
+            if (estimates.size() < capacity || estimates.containsKey(accountId)) {
+                estimates.put(accountId, estimate);
+                return;
+            }
+            if (estimate <= min)
+                return;
+
+            UUID lowest = null;
+            int lowestEstimate = Integer.MAX_VALUE;
+            for (Map.Entry<UUID, Integer> e: estimates.entrySet()) {
+                if (e.getValue() < lowestEstimate) {
+                    lowest = e.getKey();
+                    lowestEstimate = e.getValue();
+                }
+            }
+            min = lowestEstimate;
+            if (estimate > lowestEstimate) {
+                estimates.remove(lowest);
+                estimates.put(accountId, estimate);
+            }
+        }
+
+        synchronized List<UUID> sorted () {
+            final var entries = new ArrayList<>(estimates.entrySet());
+            entries.sort(Map.Entry.<UUID, Integer>comparingByValue().reversed());
+            final var result = new ArrayList<UUID>(entries.size());
+            for (Map.Entry<UUID, Integer> e: entries)
+                result.add(e.getKey());
+            return result;
+        }
+
+        synchronized void decay () {
+            estimates.replaceAll((id, estimate) -> estimate >>> 1);
+            min >>>= 1;
+        }
+    }
+
+    private static class Provider extends AbstractExtensionId<HotAccounts> implements ExtensionIdProvider {
+        @Override public Provider lookup () {
+            return PROVIDER;
+        }
+
+        @Override public HotAccounts createExtension (ExtendedActorSystem system) {
+            return new HotAccounts(system.settings().config().getConfig("core-banking.warm-up"));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.arnohaase.corebanking.warmup;
+
+import akka.actor.Props;
+import akka.persistence.AbstractPersistentActor;
+import akka.persistence.DeleteSnapshotsFailure;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+
+/**
+ * A shard's persisted hot list. It has no events, only a snapshot with the shard's latest {@link WarmUpMessages.HotList},
+ *  which is replaced whenever the warm-up sends a changed list. After recovery, it sends the list to its parent.
+ *
+ * The node that hosts the shard saves the list, so there is a single writer except briefly while a shard is handed
+ *  over; a list is a hint for warming up, so a lost update does no harm.
+ */
+class ShardHotList extends AbstractPersistentActor {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    static Props props (String shardId) {
+        return Props.create(ShardHotList.class, () -> new ShardHotList(shardId))
+                .withDispatcher("core-banking.dispatchers.batch");
+    }
+
+    private final String shardId;
+    private WarmUpMessages.HotList hotList;
+
+    private ShardHotList (String shardId) {
+        this.shardId = shardId;
+        this.hotList = ImmutableHotList.of(shardId, List.of());
+    }
+
+    @Override public String persistenceId () {
+        return "account-warm-up-" + shardId;
+    }
+
+    @Override public Receive createReceiveRecover () {
+        return receiveBuilder()
+                .match(SnapshotOffer.class, offer -> hotList = (WarmUpMessages.HotList) offer.snapshot())
+                .match(RecoveryCompleted.class, evt -> context().parent().tell(hotList, self()))
+                .build();
+    }
+
+    @Override public Receive createReceive () {
+        return receiveBuilder()
+                .match(WarmUpMessages.HotList.class, this::onHotList)
+                .match(SaveSnapshotSuccess.class, msg -> deleteSnapshots(SnapshotSelectionCriteria.create(msg.metadata().sequenceNr(), msg.metadata().timestamp() - 1)))
+                .match(SaveSnapshotFailure.class, msg -> log.warn("saving snapshot failed for {}", persistenceId(), msg.cause()))
+                .match(DeleteSnapshotsFailure.class, msg -> log.warn("deleting snapshots failed for {}", persistenceId(), msg.cause()))
+                .build();
+    }
+
+    private void onHotList (WarmUpMessages.HotList msg) {
+        if (! msg.accounts().isEmpty() && ! msg.accounts().equals(hotList.accounts())) {
+            hotList = msg;
+            saveSnapshot(msg);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package de.arnohaase.corebanking.warmup;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.immutables.value.Value;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.UUID;
+
+
+public class WarmUpMessages {
+    /**
+     * a shard's hottest accounts, hottest first; saved as the snapshot of the shard's {@link ShardHotList}
+     */
+    @Value.Immutable
+    public interface HotList extends Serializable {
+        @Value.Parameter String shardId();
+        @Value.Parameter List<UUID> accounts();
+    }
+
+    /**
+     * The node's warm-up progress. 'scheduled' counts the accounts the node started for warm-up, 'warmed' and 'failed'
+     *  those that answered or failed to. 'ready' does not change back once the node was ready.
+     */
+    @JsonSerialize
+    @Value.Immutable
+    public interface Status {
+        boolean ready();
+        int shards();
+        long scheduled();
+        long warmed();
+        long failed();
+    }
+}
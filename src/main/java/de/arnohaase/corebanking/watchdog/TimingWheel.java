@@ -0,0 +1,73 @@
+package de.arnohaase.corebanking.watchdog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+
+/**
+ * A hashed timing wheel: deadlines are put into buckets by tick, so scheduling is O(1) and advancing the wheel only
+ *  touches the buckets for ticks that have passed. Deadlines further away than one revolution stay in their bucket
+ *  until their tick comes around.
+ *
+ * There is no cancellation; callers check if an expired key is still relevant.
+ */
+class TimingWheel<K> {
+    private static class Entry<K> {
+        final K key;
+        final long deadlineTick;
+
+        Entry (K key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    private final long tickMillis;
+    private final ArrayDeque<Entry<K>>[] buckets;
+    private long currentTick;
+    private int size = 0;
+
+    @SuppressWarnings("unchecked")
+    TimingWheel (long tickMillis, int wheelSize, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.buckets = new ArrayDeque[wheelSize];
+        for (int i=0; i<wheelSize; i++) buckets[i] = new ArrayDeque<>();
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    void schedule (K key, long deadlineMillis) {
+        final long tick = Math.max(deadlineMillis / tickMillis, currentTick + 1);
+        buckets[(int) (tick % buckets.length)].add(new Entry<>(key, tick));
+        size++;
+    }
+
+    /**
+     * passes all keys with a deadline up to {@code nowMillis} to {@code onExpired}. The callback may schedule keys again.
+     */
+    void advance (long nowMillis, Consumer<K> onExpired) {
+        final long nowTick = nowMillis / tickMillis;
+        final long numTicks = Math.min(nowTick - currentTick, buckets.length);
+
+        final var expired = new ArrayList<K>();
+        for (long tick = nowTick - numTicks + 1; tick <= nowTick; tick++) {
+            final Iterator<Entry<K>> it = buckets[(int) (tick % buckets.length)].iterator();
+            while (it.hasNext()) {
+                final var entry = it.next();
+                if (entry.deadlineTick <= nowTick) {
+                    it.remove();
+                    expired.add(entry.key);
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+
+        size -= expired.size();
+        expired.forEach(onExpired);
+    }
+
+    int size () {
+        return size;
+    }
+}
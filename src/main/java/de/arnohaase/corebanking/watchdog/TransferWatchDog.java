@@ -5,44 +5,29 @@ import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.cluster.sharding.ClusterSharding;
 import akka.cluster.sharding.ClusterShardingSettings;
-import akka.cluster.sharding.ShardRegion;
-import de.arnohaase.corebanking.accounts.AccountMessages;
 
 
 public class TransferWatchDog extends AbstractActor {
+    static final String TYPE_NAME = "transfer-watchdog";
+
     private final ActorRef shardRegion;
 
-    public static Props props(ActorRef accounts) {
-        return Props.create(TransferWatchDog.class, () -> new TransferWatchDog(accounts));
+    public static Props props() {
+        return Props.create(TransferWatchDog.class, TransferWatchDog::new);
     }
 
-    private TransferWatchDog (ActorRef accounts) {
-        final ShardRegion.MessageExtractor messageExtractor = new ShardRegion.HashCodeMessageExtractor(32) {
-            @Override
-            public String entityId (Object msg) {
-                final byte[] bytes = new byte[1];
-
-                if (msg instanceof AccountMessages.TransferCommand)
-                    bytes[0] = (byte) (((AccountMessages.TransferCommand) msg).transferId().getLeastSignificantBits() & 32);
-                else if (msg instanceof AccountMessages.TransferPingCancellation)
-                    bytes[0] = (byte) (((AccountMessages.TransferPingCancellation) msg).transferId().getLeastSignificantBits() & 32);
-                else if (msg instanceof Byte)
-                    bytes[0] = (Byte)msg;
-                else
-                    bytes[0] = 0;
-
-                return new String(bytes);
-            }
-        };
-        
+    private TransferWatchDog () {
+        final var messageExtractor = new TransferWatchDogMessageExtractor(context().system().settings().config().getInt("core-banking.watchdog.shards"));
+
         shardRegion = ClusterSharding.get(context().system()).start(
-                "transfer-watchdog",
-                TransferWatchDogEntity.props(accounts),
+                TYPE_NAME,
+                TransferWatchDogEntity.props(),
                 ClusterShardingSettings.create(context().system()),
                 messageExtractor
         );
 
-        for (byte b=0; b<32; b++) self().tell(b, ActorRef.noSender());
+        for (int i=0; i<messageExtractor.numEntities(); i++) self().tell(i, ActorRef.noSender());
+        for (String legacyEntityId: TransferWatchDogMessageExtractor.LEGACY_ENTITY_IDS) self().tell(legacyEntityId, ActorRef.noSender());
     }
 
     @Override public Receive createReceive () {
@@ -2,30 +2,77 @@ package de.arnohaase.corebanking.watchdog;
 
 import akka.Done;
 import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
 import akka.actor.Props;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ShardRegion;
 import akka.persistence.AbstractPersistentActorWithTimers;
+import akka.persistence.DeleteMessagesFailure;
+import akka.persistence.DeleteMessagesSuccess;
+import akka.persistence.DeleteSnapshotsFailure;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
 import de.arnohaase.corebanking.accounts.AccountMessages;
+import de.arnohaase.corebanking.accounts.Accounts;
 import de.arnohaase.corebanking.accounts.ImmutableTransferCommand;
 import de.arnohaase.corebanking.accounts.ImmutableTransferPing;
+import de.arnohaase.corebanking.accounts.ImmutableTransferPingCancellation;
+import de.arnohaase.corebanking.accounts.ImmutableWatchDogSnapshot;
+import de.arnohaase.corebanking.metrics.Metrics;
+import de.arnohaase.corebanking.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 
 public class TransferWatchDogEntity extends AbstractPersistentActorWithTimers {
-    private final ActorRef accounts;
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private ActorRef accounts;
     private final Map<UUID, AccountMessages.TransferPing> watchList = new HashMap<>();
 
-    public static Props props(ActorRef accounts) {
-        return Props.create(TransferWatchDogEntity.class, () -> new TransferWatchDogEntity(accounts));
+    // an entity of an earlier version hands its watched transfers over to the current entities instead of pinging
+    //  them, and deletes its journal once it has handed over all of them
+    private final boolean isLegacy;
+
+    // every watched transfer has its own deadline for the next ping
+    private final long pingIntervalMillis;
+    private final TimingWheel<UUID> deadlines;
+
+    // the watch list is snapshotted periodically, and events up to the snapshot are deleted
+    private final int snapshotEvery;
+    private int eventsSinceSnapshot = 0;
+
+    private final long recoveryStartNanos = System.nanoTime();
+    private final Timer persistTimer = Metrics.get(context().system()).timer("watchdog_persist");
+
+    public static Props props() {
+        return Props.create(TransferWatchDogEntity.class, TransferWatchDogEntity::new)
+                .withMailbox("core-banking.mailboxes.watchdog-entities")
+                .withDispatcher("core-banking.dispatchers.watchdog");
     }
 
-    public TransferWatchDogEntity (ActorRef accounts) {
-        this.accounts = accounts;
-        timers().startPeriodicTimer("", "ping", FiniteDuration.apply(5, TimeUnit.MINUTES));
+    public TransferWatchDogEntity () {
+        final var config = context().system().settings().config().getConfig("core-banking.watchdog");
+        this.pingIntervalMillis = config.getDuration("ping-interval").toMillis();
+        final long tickMillis = config.getDuration("tick").toMillis();
+        this.deadlines = new TimingWheel<>(tickMillis, (int) (pingIntervalMillis / tickMillis) + 1, System.currentTimeMillis());
+        this.snapshotEvery = config.getInt("snapshot-every");
+        this.isLegacy = TransferWatchDogMessageExtractor.LEGACY_ENTITY_IDS.contains(URLDecoder.decode(self().path().name(), StandardCharsets.UTF_8));
+
+        timers().startPeriodicTimer("", "tick", FiniteDuration.apply(tickMillis, TimeUnit.MILLISECONDS));
     }
 
     @Override public String persistenceId () {
@@ -35,37 +82,167 @@ public class TransferWatchDogEntity extends AbstractPersistentActorWithTimers {
     @Override public Receive createReceive () {
         return receiveBuilder()
                 .match(AccountMessages.TransferCommand.class, this::onStartWatch)
+                .match(AccountMessages.WatchAccount.class, this::onWatchAccount)
+                .match(AccountMessages.TransferPing.class, msg -> isLegacy, this::onHandedOver)
+                .match(AccountMessages.TransferPing.class, this::onTakeOver)
                 .match(AccountMessages.TransferPingCancellation.class, this::onCancelWatch)
-                .matchEquals("ping", this::doPing)
+                .matchEquals("tick", this::doPing)
+                .match(SaveSnapshotSuccess.class, this::onSnapshotSaved)
+                .match(DeleteMessagesSuccess.class, msg -> isLegacy && watchList.isEmpty(), msg -> passivate())
+                .match(SaveSnapshotFailure.class, msg -> log.warn("saving snapshot failed for {}", persistenceId(), msg.cause()))
+                .match(DeleteMessagesFailure.class, msg -> log.warn("deleting events failed for {}", persistenceId(), msg.cause()))
+                .match(DeleteSnapshotsFailure.class, msg -> log.warn("deleting snapshots failed for {}", persistenceId(), msg.cause()))
                 .build();
     }
 
+    private void takeSnapshot() {
+        eventsSinceSnapshot = 0;
+        saveSnapshot(ImmutableWatchDogSnapshot.of(new ArrayList<>(watchList.values())));
+    }
+
+    private void snapshotIfDue() {
+        if (++eventsSinceSnapshot >= snapshotEvery)
+            takeSnapshot();
+    }
+
+    private void onSnapshotSaved(SaveSnapshotSuccess msg) {
+        final long sequenceNr = msg.metadata().sequenceNr();
+        deleteMessages(sequenceNr);
+        deleteSnapshots(SnapshotSelectionCriteria.create(sequenceNr - 1, Long.MAX_VALUE));
+    }
+
+    private void passivate() {
+        context().parent().tell(new ShardRegion.Passivate(PoisonPill.getInstance()), self());
+    }
+
     private void doPing(Object msg) {
-        for (AccountMessages.TransferPing tp: watchList.values()) {
-            accounts.tell(tp, self());
-        }
+        final long now = System.currentTimeMillis();
+        final var target = isLegacy ? ClusterSharding.get(context().system()).shardRegion(TransferWatchDog.TYPE_NAME) : accounts();
+        deadlines.advance(now, transferId -> {
+            final var tp = watchList.get(transferId);
+            if (tp != null) {
+                target.tell(tp, self());
+                deadlines.schedule(transferId, now + pingIntervalMillis);
+            }
+        });
+    }
+
+    /**
+     * the accounts' shard region is looked up lazily because the watchdog is started before it
+     */
+    private ActorRef accounts() {
+        if (accounts == null)
+            accounts = Accounts.shardRegion(context().system());
+        return accounts;
     }
 
     private void onStartWatch(AccountMessages.TransferCommand msg) {
         if (! watchList.containsKey(msg.transferId())) {
+            final long startNanos = System.nanoTime();
             persist(ImmutableTransferPing.of(msg.transferId(), msg.entityId()), evt -> {
+                persistTimer.record(System.nanoTime() - startNanos);
                 watchList.put(msg.transferId(), evt);
+                deadlines.schedule(msg.transferId(), System.currentTimeMillis() + pingIntervalMillis);
                 sender().tell(ImmutableTransferCommand.copyOf(msg).withIsWatched(true), self());
+                snapshotIfDue();
             });
         }
     }
+
+    /**
+     * an account's watch is a ping with the account's id as transfer id; registering it again is acknowledged
+     *  without a write, since the account cannot tell whether an earlier registration got through
+     */
+    private void onWatchAccount(AccountMessages.WatchAccount msg) {
+        if (watchList.containsKey(msg.entityId()))
+            sender().tell(msg, self());
+        else {
+            final long startNanos = System.nanoTime();
+            persist(ImmutableTransferPing.of(msg.entityId(), msg.entityId()), evt -> {
+                persistTimer.record(System.nanoTime() - startNanos);
+                watchList.put(msg.entityId(), evt);
+                deadlines.schedule(msg.entityId(), System.currentTimeMillis() + pingIntervalMillis);
+                sender().tell(msg, self());
+                snapshotIfDue();
+            });
+        }
+    }
+
+    /**
+     * a transfer handed over by a legacy entity, acknowledged like a registration
+     */
+    private void onTakeOver(AccountMessages.TransferPing msg) {
+        if (watchList.containsKey(msg.transferId()))
+            sender().tell(msg, self());
+        else {
+            final long startNanos = System.nanoTime();
+            persist(msg, evt -> {
+                persistTimer.record(System.nanoTime() - startNanos);
+                watchList.put(msg.transferId(), evt);
+                deadlines.schedule(msg.transferId(), System.currentTimeMillis() + pingIntervalMillis);
+                sender().tell(msg, self());
+                snapshotIfDue();
+            });
+        }
+    }
+
+    /**
+     * a legacy entity's transfer was taken over by its current entity
+     */
+    private void onHandedOver(AccountMessages.TransferPing msg) {
+        if (watchList.containsKey(msg.transferId()))
+            persist(ImmutableTransferPingCancellation.of(msg.transferId()), evt -> {
+                watchList.remove(msg.transferId());
+                if (watchList.isEmpty()) {
+                    log.info("{} handed over all watched transfers", persistenceId());
+                    deleteMessages(lastSequenceNr());
+                    deleteSnapshots(SnapshotSelectionCriteria.latest());
+                }
+            });
+    }
+
     private void onCancelWatch(AccountMessages.TransferPingCancellation msg) {
         if (watchList.containsKey(msg.transferId())) {
+            final long startNanos = System.nanoTime();
             persist(msg, evt -> {
+                persistTimer.record(System.nanoTime() - startNanos);
                 watchList.remove(msg.transferId());
+                snapshotIfDue();
             });
         }
     }
 
     @Override public Receive createReceiveRecover () {
         return receiveBuilder()
-                .match(AccountMessages.TransferPing.class, evt -> watchList.put(evt.transferId(), evt))
-                .match(AccountMessages.TransferPingCancellation.class, evt -> watchList.remove(evt.transferId()))
+                .match(SnapshotOffer.class, offer -> {
+                    for (AccountMessages.TransferPing tp: ((AccountMessages.WatchDogSnapshot) offer.snapshot()).pings())
+                        watchList.put(tp.transferId(), tp);
+                })
+                .match(AccountMessages.TransferPing.class, evt -> {
+                    watchList.put(evt.transferId(), evt);
+                    eventsSinceSnapshot++;
+                })
+                .match(AccountMessages.TransferPingCancellation.class, evt -> {
+                    watchList.remove(evt.transferId());
+                    eventsSinceSnapshot++;
+                })
+                .match(RecoveryCompleted.class, evt -> {
+                    final long recoveryNanos = System.nanoTime() - recoveryStartNanos;
+                    Metrics.get(context().system()).timer("watchdog_recovery").record(recoveryNanos);
+                    log.info("recovered {} in {} ms: replayed {} events, {} watched transfers", persistenceId(), recoveryNanos / 1_000_000, eventsSinceSnapshot, watchList.size());
+                    if (isLegacy && watchList.isEmpty()) {
+                        passivate();
+                        return;
+                    }
+                    if (eventsSinceSnapshot >= snapshotEvery)
+                        takeSnapshot();
+
+                    // spread the pings for recovered transfers over the ping interval rather than sending them in one burst
+                    final long now = System.currentTimeMillis();
+                    final var random = ThreadLocalRandom.current();
+                    for (UUID transferId: watchList.keySet())
+                        deadlines.schedule(transferId, now + random.nextLong(pingIntervalMillis));
+                })
                 .build();
     }
 }
@@ -0,0 +1,60 @@
+package de.arnohaase.corebanking.watchdog;
+
+import akka.cluster.sharding.ShardRegion;
+import de.arnohaase.corebanking.accounts.AccountMessages;
+
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * Distributes transfers uniformly over a fixed number of watchdog entities, each in a shard of its own. An account's
+ *  watch is keyed by the account's id like a transfer's by the transfer id. Integer messages address a watchdog
+ *  entity by index.
+ *
+ * Earlier versions used the two entities "\u0000" and " ". They are addressed by their ids as String messages, and
+ *  hand their watch lists over to the current entities as TransferPing messages.
+ */
+class TransferWatchDogMessageExtractor implements ShardRegion.MessageExtractor {
+    static final List<String> LEGACY_ENTITY_IDS = List.of("\u0000", " ");
+
+    private final String[] entityIds;
+
+    TransferWatchDogMessageExtractor (int numEntities) {
+        this.entityIds = new String[numEntities];
+        for (int i=0; i<numEntities; i++) entityIds[i] = String.valueOf(i);
+    }
+
+    int numEntities () {
+        return entityIds.length;
+    }
+
+    @Override public String entityId (Object msg) {
+        if (msg instanceof AccountMessages.TransferCommand)
+            return entityIdFor(((AccountMessages.TransferCommand) msg).transferId());
+        if (msg instanceof AccountMessages.TransferPingCancellation)
+            return entityIdFor(((AccountMessages.TransferPingCancellation) msg).transferId());
+        if (msg instanceof AccountMessages.WatchAccount)
+            return entityIdFor(((AccountMessages.WatchAccount) msg).entityId());
+        if (msg instanceof AccountMessages.TransferPing)
+            return entityIdFor(((AccountMessages.TransferPing) msg).transferId());
+        if (msg instanceof Integer)
+            return entityIds[(Integer) msg];
+        if (msg instanceof String && LEGACY_ENTITY_IDS.contains(msg))
+            return (String) msg;
+        return null;
+    }
+
+    private String entityIdFor (UUID transferId) {
+        final long bits = transferId.getMostSignificantBits() ^ transferId.getLeastSignificantBits();
+        return entityIds[Math.floorMod(Long.hashCode(bits), entityIds.length)];
+    }
+
+    @Override public Object entityMessage (Object msg) {
+        return msg;
+    }
+
+    @Override public String shardId (Object msg) {
+        return entityId(msg);
+    }
+}
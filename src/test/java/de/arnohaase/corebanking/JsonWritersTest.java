@@ -0,0 +1,143 @@
+package de.arnohaase.corebanking;
+
+import de.arnohaase.corebanking.accounts.AccountMessages;
+import de.arnohaase.corebanking.accounts.ImmutableBulkItemResult;
+import de.arnohaase.corebanking.accounts.ImmutableCreateAccount;
+import de.arnohaase.corebanking.accounts.ImmutableDeposit;
+import de.arnohaase.corebanking.accounts.ImmutableGetResponse;
+import de.arnohaase.corebanking.accounts.ImmutableJournalEntry;
+import de.arnohaase.corebanking.accounts.ImmutablePosting;
+import de.arnohaase.corebanking.accounts.ImmutableReceivedTransfer;
+import de.arnohaase.corebanking.accounts.ImmutableTransferAckForSender;
+import de.arnohaase.corebanking.accounts.ImmutableTransferCommand;
+import de.arnohaase.corebanking.accounts.ImmutableWithdraw;
+import de.arnohaase.corebanking.accounts.Money;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * The writers' output is byte for byte the ObjectMapper's, for every registered class and for edge values of the
+ *  value types
+ */
+public class JsonWritersTest {
+    private static final UUID ID = UUID.fromString("11111111-2222-3333-4444-555555555555");
+    private static final Instant TIMESTAMP = Instant.parse("2017-11-01T10:15:30.123Z");
+
+    private final JsonWriters json = new JsonWriters(HttpServer.om);
+
+    private static final List<Money> AMOUNTS = List.of(Money.ZERO, Money.ofMinorUnits(1), Money.ofMinorUnits(-1),
+            Money.ofMinorUnits(-9), Money.ofMinorUnits(-10), Money.ofMinorUnits(-99), Money.ofMinorUnits(-100),
+            Money.ofMinorUnits(-101), Money.ofMinorUnits(99), Money.ofMinorUnits(100), Money.ofMinorUnits(12345),
+            Money.ofMinorUnits(Long.MAX_VALUE), Money.ofMinorUnits(Long.MIN_VALUE), Money.ofMinorUnits(Long.MIN_VALUE + 1));
+    private static final List<Long> NUMBERS = List.of(0L, 1L, -1L, 9L, 10L, 999_999_999_999L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1);
+    private static final List<Instant> INSTANTS = List.of(Instant.EPOCH, TIMESTAMP,
+            Instant.parse("2017-11-01T10:15:30.123456Z"), Instant.parse("2017-11-01T10:15:30.123456789Z"),
+            Instant.parse("2017-11-01T10:15:30.000000001Z"), Instant.parse("2017-11-01T10:15:30.100Z"),
+            Instant.ofEpochSecond(-1, 999_999_999), Instant.parse("2000-02-29T23:59:59Z"), Instant.parse("1900-03-01T00:00:00Z"),
+            Instant.parse("0000-01-01T00:00:00Z"), Instant.parse("9999-12-31T23:59:59.999999999Z"),
+            Instant.parse("-0001-12-31T23:59:59Z"), Instant.parse("+10000-01-01T00:00:00Z"), Instant.MIN, Instant.MAX);
+    private static final List<String> STRINGS = List.of("", "amount greater than balance", "\"quoted\" \\ back/slash",
+            "\u0000\u0001\b\t\n\u000b\f\r\u001f\u007f", "\u00e4\u00f6\u00fc \u00df \u20ac \u4e2d\u6587", "\uD83D\uDE00 \uD800\uDC00 \uDBFF\uDFFF", "lone \uD800 surrogates \uDC00");
+
+    /**
+     * one instance per registered class for each of the edge values, varying one value at a time
+     */
+    private void forEachSample (Consumer<Object> check) {
+        for (Money amount: AMOUNTS) {
+            check.accept(ImmutableGetResponse.of(amount, 1, ID));
+            check.accept(ImmutableDeposit.of(amount, TIMESTAMP, ID));
+            check.accept(ImmutableWithdraw.of(amount, TIMESTAMP, ID));
+            check.accept(ImmutableTransferCommand.of(ID, true, amount, ID, TIMESTAMP, ID));
+            check.accept(ImmutableReceivedTransfer.of(1, ID, amount, ID, TIMESTAMP, ID));
+            check.accept(ImmutableTransferAckForSender.of(1, ID, amount, false, TIMESTAMP, ID));
+            check.accept(ImmutablePosting.of(ID, amount, amount, TIMESTAMP, ID));
+        }
+        for (long n: NUMBERS) {
+            check.accept(ImmutableGetResponse.of(Money.ZERO, n, ID));
+            check.accept(ImmutableReceivedTransfer.of(n, ID, Money.ZERO, ID, TIMESTAMP, ID));
+            check.accept(ImmutableTransferAckForSender.of(n, ID, Money.ZERO, true, TIMESTAMP, ID));
+            check.accept(ImmutableJournalEntry.of(n, ImmutableCreateAccount.of(ID)));
+            check.accept(ImmutableBulkLineResult.of(n, true, ""));
+        }
+        for (Instant instant: INSTANTS) {
+            check.accept(ImmutableDeposit.of(Money.ZERO, instant, ID));
+            check.accept(ImmutableWithdraw.of(Money.ZERO, instant, ID));
+            check.accept(ImmutableTransferCommand.of(ID, false, Money.ZERO, ID, instant, ID));
+            check.accept(ImmutableReceivedTransfer.of(1, ID, Money.ZERO, ID, instant, ID));
+            check.accept(ImmutableTransferAckForSender.of(1, ID, Money.ZERO, true, instant, ID));
+            check.accept(ImmutablePosting.of(ID, Money.ZERO, Money.ZERO, instant, ID));
+        }
+        for (String s: STRINGS) {
+            check.accept(ImmutableBulkItemResult.of(false, s));
+            check.accept(ImmutableBulkLineResult.of(1, false, s));
+        }
+        for (UUID id: List.of(new UUID(0, 0), new UUID(-1, -1), new UUID(Long.MIN_VALUE, 1), UUID.randomUUID())) {
+            check.accept(ImmutableCreateAccount.of(id));
+            check.accept(ImmutableTransferCommand.of(id, true, Money.ZERO, id, TIMESTAMP, id));
+        }
+    }
+
+    private void assertSameAsObjectMapper (Object value) {
+        try {
+            final byte[] expected = HttpServer.om.writeValueAsBytes(value);
+            assertArrayEquals(new String(expected, "UTF-8"), expected, json.write(value).toArray());
+            final var line = json.writeLine(value).toArray();
+            assertEquals('\n', line[line.length - 1]);
+        }
+        catch (Exception exc) {
+            throw new AssertionError(value.toString(), exc);
+        }
+    }
+
+    @Test public void writesRegisteredClassesLikeObjectMapper () {
+        final var covered = new HashSet<Class<?>>();
+        forEachSample(value -> {
+            covered.add(value.getClass());
+            assertSameAsObjectMapper(value);
+        });
+
+        final var notCovered = new HashSet<>(json.registeredClasses());
+        notCovered.removeAll(covered);
+        // OK's only field is the current time
+        notCovered.remove(AccountMessages.OK.class);
+        assertEquals(new HashSet<>(), notCovered);
+        assertTrue(new String(json.write(new AccountMessages.OK()).toArray()).matches("\\{\"timestamp\":\"[0-9T:.Z-]+\"}"));
+    }
+
+    @Test public void writesListsAndUnregisteredClassesLikeObjectMapper () {
+        final var entries = new ArrayList<Object>();
+        forEachSample(value -> entries.add(ImmutableJournalEntry.of(entries.size(), value)));
+        assertSameAsObjectMapper(entries);
+        assertSameAsObjectMapper(List.of());
+        assertSameAsObjectMapper(List.of(ImmutableCreateAccount.of(ID), List.of(ImmutableCreateAccount.of(ID))));
+        assertSameAsObjectMapper(de.arnohaase.corebanking.warmup.ImmutableStatus.builder().ready(true).shards(1).scheduled(2).warmed(3).failed(4).build());
+    }
+
+    @Test public void writesRandomValuesLikeObjectMapper () {
+        final var random = new Random(42);
+        for (int i=0; i<10_000; i++) {
+            final var id = new UUID(random.nextLong(), random.nextLong());
+            final var amount = Money.ofMinorUnits(random.nextBoolean() ? random.nextLong() : random.nextInt(2000) - 1000);
+            final var instant = Instant.ofEpochSecond(random.nextLong() % 400_000_000_000L, random.nextInt(1_000_000_000));
+            final var reason = new StringBuilder();
+            for (int c=random.nextInt(10); c>0; c--)
+                reason.appendCodePoint(random.nextBoolean() ? random.nextInt(0x80) : random.nextInt(0x10000) < 0xd800 ? random.nextInt(0xd800) : 0x10000 + random.nextInt(0x100000));
+
+            assertSameAsObjectMapper(ImmutableTransferAckForSender.of(random.nextLong(), id, amount, random.nextBoolean(), instant, id));
+            assertSameAsObjectMapper(ImmutablePosting.of(id, amount, amount, instant, id));
+            assertSameAsObjectMapper(ImmutableBulkItemResult.of(random.nextBoolean(), reason.toString()));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorPaths;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.persistence.AtLeastOnceDelivery;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.collection.JavaConverters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Every manifest the serializer reads: today's by a round trip, the older ones from their encoding as it was written
+ */
+public class AccountMessagesSerializerTest {
+    private static final UUID ACCOUNT = UUID.fromString("11111111-2222-3333-4444-555555555555");
+    private static final UUID OTHER = UUID.fromString("66666666-7777-8888-9999-aaaaaaaaaaaa");
+    private static final UUID TRANSFER = UUID.fromString("bbbbbbbb-cccc-dddd-eeee-ffffffffffff");
+    private static final Instant TIMESTAMP = Instant.parse("2017-11-01T10:15:30.123456789Z");
+    private static final Money AMOUNT = Money.parse("123.45");
+
+    private static ActorSystem system;
+    private static AccountMessagesSerializer serializer;
+
+    @BeforeClass public static void setUp () {
+        system = ActorSystem.create("serializer", ConfigFactory.parseString("akka.actor.provider = local").withFallback(ConfigFactory.load()));
+        serializer = new AccountMessagesSerializer((ExtendedActorSystem) system);
+    }
+
+    @AfterClass public static void tearDown () {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    private static AtLeastOnceDelivery.AtLeastOnceDeliverySnapshot deliveries () {
+        final var delivery = new AtLeastOnceDelivery.UnconfirmedDelivery(3, ActorPaths.fromString("akka://serializer/system/sharding/accounts"),
+                ImmutableReceivedTransfer.of(3, TRANSFER, AMOUNT, ACCOUNT, TIMESTAMP, OTHER));
+        return new AtLeastOnceDelivery.AtLeastOnceDeliverySnapshot(7, JavaConverters.asScalaBuffer(List.of(delivery)).toList());
+    }
+
+    private static Object roundTrip (Object o) throws NotSerializableException {
+        return serializer.fromBinary(serializer.toBinary(o), serializer.manifest(o));
+    }
+
+    @Test public void roundTripsEveryMessage () throws NotSerializableException {
+        final var messages = new TreeMap<String, Object>(Map.ofEntries(
+                Map.entry("CA1", ImmutableCreateAccount.of(ACCOUNT)),
+                Map.entry("D2", ImmutableDeposit.of(AMOUNT, TIMESTAMP, ACCOUNT)),
+                Map.entry("W2", ImmutableWithdraw.of(Money.ofMinorUnits(Long.MAX_VALUE), TIMESTAMP, ACCOUNT)),
+                Map.entry("G1", ImmutableGet.of(ACCOUNT)),
+                Map.entry("GS1", ImmutableGetStripe.of(5, ACCOUNT)),
+                Map.entry("WU1", ImmutableWarmUp.of(ACCOUNT)),
+                Map.entry("GR4", ImmutableGetResponse.of(Money.ofMinorUnits(-1), Long.MAX_VALUE, ACCOUNT)),
+                Map.entry("TC2", ImmutableTransferCommand.of(TRANSFER, true, AMOUNT, OTHER, TIMESTAMP, ACCOUNT)),
+                Map.entry("RT2", ImmutableReceivedTransfer.of(17, TRANSFER, AMOUNT, OTHER, TIMESTAMP, ACCOUNT)),
+                Map.entry("TA2", ImmutableTransferAckForSender.of(17, TRANSFER, Money.ofMinorUnits(Long.MIN_VALUE), false, TIMESTAMP, ACCOUNT)),
+                Map.entry("TP1", ImmutableTransferPing.of(TRANSFER, ACCOUNT)),
+                Map.entry("TPC1", ImmutableTransferPingCancellation.of(TRANSFER)),
+                Map.entry("WA1", ImmutableWatchAccount.of(ACCOUNT)),
+                Map.entry("BC1", ImmutableBulkCommand.of(List.of(ImmutableDeposit.of(AMOUNT, TIMESTAMP, ACCOUNT), ImmutableWithdraw.of(AMOUNT, TIMESTAMP, ACCOUNT)), ACCOUNT)),
+                Map.entry("BR1", ImmutableBulkResponse.of(List.of(ImmutableBulkItemResult.of(true, ""), ImmutableBulkItemResult.of(false, "amount greater than balance")), ACCOUNT)),
+                Map.entry("P1", ImmutablePosting.of(TRANSFER, Money.parse("0.34"), Money.ZERO, TIMESTAMP, ACCOUNT)),
+                Map.entry("PR1", ImmutablePostingResponse.of(true, Money.parse("0.05"), ACCOUNT)),
+                Map.entry("AS4", ImmutableAccountSnapshot.of(true, AMOUNT, List.of(TRANSFER), List.of(OTHER, TRANSFER), List.of(ACCOUNT), deliveries())),
+                Map.entry("WS1", ImmutableWatchDogSnapshot.of(List.of(ImmutableTransferPing.of(TRANSFER, ACCOUNT), ImmutableTransferPing.of(ACCOUNT, ACCOUNT))))));
+
+        for (Map.Entry<String, Object> e: messages.entrySet()) {
+            assertEquals(e.getKey(), serializer.manifest(e.getValue()));
+            assertEquals(e.getKey(), e.getValue(), roundTrip(e.getValue()));
+        }
+
+        // no fields and no equals
+        assertEquals("N1", serializer.manifest(new AccountMessages.New()));
+        assertTrue(roundTrip(new AccountMessages.New()) instanceof AccountMessages.New);
+        assertEquals("OK1", serializer.manifest(new AccountMessages.OK()));
+        assertTrue(roundTrip(new AccountMessages.OK()) instanceof AccountMessages.OK);
+    }
+
+    /**
+     * the encoding of version 1, with amounts as BigDecimal
+     */
+    @Test public void readsBigDecimalAmounts () throws IOException {
+        assertEquals(ImmutableDeposit.of(AMOUNT, TIMESTAMP, ACCOUNT),
+                serializer.fromBinary(encode(out -> { uuid(ACCOUNT, out); bigDecimal("123.45", out); instant(TIMESTAMP, out); }), "D1"));
+        assertEquals(ImmutableWithdraw.of(Money.parse("0.12"), TIMESTAMP, ACCOUNT),
+                serializer.fromBinary(encode(out -> { uuid(ACCOUNT, out); bigDecimal("0.125", out); instant(TIMESTAMP, out); }), "W1"));
+        assertEquals(ImmutableTransferCommand.of(TRANSFER, false, Money.parse("10.00"), OTHER, TIMESTAMP, ACCOUNT),
+                serializer.fromBinary(encode(out -> { uuid(ACCOUNT, out); uuid(TRANSFER, out); out.writeBoolean(false); bigDecimal("10", out); uuid(OTHER, out); instant(TIMESTAMP, out); }), "TC1"));
+        assertEquals(ImmutableReceivedTransfer.of(17, TRANSFER, Money.parse("-0.50"), OTHER, TIMESTAMP, ACCOUNT),
+                serializer.fromBinary(encode(out -> { uuid(ACCOUNT, out); out.writeLong(17); uuid(TRANSFER, out); bigDecimal("-0.5", out); uuid(OTHER, out); instant(TIMESTAMP, out); }), "RT1"));
+        assertEquals(ImmutableTransferAckForSender.of(17, TRANSFER, Money.parse("1000.00"), true, TIMESTAMP, ACCOUNT),
+                serializer.fromBinary(encode(out -> { uuid(ACCOUNT, out); out.writeLong(17); uuid(TRANSFER, out); bigDecimal("1E+3", out); out.writeBoolean(true); instant(TIMESTAMP, out); }), "TA1"));
+    }
+
+    /**
+     * Snapshots of version 1 had a BigDecimal balance, those of versions 1 and 2 contained the account's journal, and
+     *  those before version 4 had no posting ids
+     */
+    @Test public void readsOlderSnapshots () throws IOException {
+        final var expected = ImmutableAccountSnapshot.of(true, AMOUNT, List.of(TRANSFER), List.of(OTHER), List.of(), deliveries());
+        // the deliveries' encoding is unchanged; it follows isCreated, a zero balance and three empty lists
+        final byte[] current = serializer.toBinary(ImmutableAccountSnapshot.of(false, Money.ZERO, List.of(), List.of(), List.of(), deliveries()));
+        final byte[] deliveries = Arrays.copyOfRange(current, 1 + 1 + 3 * 4, current.length);
+        final byte[] journal = encode(out -> { out.writeInt(1); out.writeInt(serializer.identifier()); out.writeUTF("D2"); uuid(ACCOUNT, out); money(AMOUNT, out); instant(TIMESTAMP, out); });
+
+        assertEquals(expected, serializer.fromBinary(encode(out -> { out.writeBoolean(true); bigDecimal("123.45", out); out.write(journal); transferIds(out); out.write(deliveries); }), "AS1"));
+        assertEquals(expected, serializer.fromBinary(encode(out -> { out.writeBoolean(true); money(AMOUNT, out); out.write(journal); transferIds(out); out.write(deliveries); }), "AS2"));
+        assertEquals(expected, serializer.fromBinary(encode(out -> { out.writeBoolean(true); money(AMOUNT, out); transferIds(out); out.write(deliveries); }), "AS3"));
+    }
+
+    private interface Encoder {
+        void encode (DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode (Encoder encoder) throws IOException {
+        final var bytes = new ByteArrayOutputStream();
+        encoder.encode(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static void transferIds (DataOutputStream out) throws IOException {
+        out.writeInt(1);
+        uuid(TRANSFER, out);
+        out.writeInt(1);
+        uuid(OTHER, out);
+    }
+
+    private static void uuid (UUID uuid, DataOutputStream out) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static void instant (Instant instant, DataOutputStream out) throws IOException {
+        out.writeLong(instant.getEpochSecond());
+        out.writeInt(instant.getNano());
+    }
+
+    private static void bigDecimal (String value, DataOutputStream out) throws IOException {
+        final var bd = new BigDecimal(value);
+        final byte[] unscaled = bd.unscaledValue().toByteArray();
+        out.writeInt(bd.scale());
+        out.writeShort(unscaled.length);
+        out.write(unscaled);
+    }
+
+    /**
+     * today's encoding of amounts, which versions 2 and 3 used as well
+     */
+    private static void money (Money amount, DataOutputStream out) throws IOException {
+        final var bytes = serializer.toBinary(ImmutableDeposit.of(amount, Instant.EPOCH, ACCOUNT));
+        out.write(bytes, 16, bytes.length - 16 - 12);
+    }
+}
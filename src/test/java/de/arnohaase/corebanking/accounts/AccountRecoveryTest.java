@@ -0,0 +1,162 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.pattern.PatternsCS;
+import akka.persistence.Persistence;
+import akka.persistence.SnapshotProtocol;
+import akka.persistence.SnapshotSelectionCriteria;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import de.arnohaase.corebanking.metrics.Metrics;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * With snapshots, an account's recovery replays at most 'snapshot-every' events, however long its history is, or
+ *  more for an account with many transfer ids, which snapshots less often
+ */
+public class AccountRecoveryTest {
+    private static final int BULK_SIZE = 1000;
+    // events after the last snapshot
+    private static final int TAIL = 500;
+
+    private static ActorSystem system;
+    private static int snapshotEvery;
+    private static int numParents = 0;
+
+    @BeforeClass public static void setUp () {
+        system = ActorSystem.create("recovery", ConfigFactory.parseString(
+                "akka.remote.netty.tcp.port = 0\n" +
+                "akka.cluster.seed-nodes = []\n" +
+                "akka.persistence.journal.plugin = \"akka.persistence.journal.inmem\"\n" +
+                "akka.persistence.snapshot-store.plugin = \"akka.persistence.snapshot-store.local\"\n" +
+                "akka.persistence.snapshot-store.local.dir = \"target/snapshots-" + UUID.randomUUID() + "\"\n" +
+                "core-banking.accounts.snapshot-ids-per-event = 1\n")
+                .withFallback(ConfigFactory.load()));
+        Cluster.get(system).join(Cluster.get(system).selfAddress());
+        Accounts.start(system, new TestKit(system).getRef());
+        snapshotEvery = system.settings().config().getInt("core-banking.accounts.snapshot-every");
+    }
+
+    @AfterClass public static void tearDown () {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    /**
+     * An account's entity is started outside the shard region so that it can be stopped and recovered right away. Its
+     *  actor name must be the account id though, so every start has a new parent.
+     */
+    private static class Parent extends AbstractActor {
+        private final ActorRef child;
+
+        Parent (UUID account) {
+            child = context().actorOf(AccountEntity.props(context().system().deadLetters()), account.toString());
+        }
+
+        @Override public Receive createReceive () {
+            return receiveBuilder()
+                    .matchAny(msg -> child.forward(msg, context()))
+                    .build();
+        }
+    }
+
+    private static ActorRef start (UUID account) {
+        return system.actorOf(Props.create(Parent.class, () -> new Parent(account)), "parent-" + numParents++);
+    }
+
+    private static Object ask (ActorRef actor, Object msg) {
+        return PatternsCS.ask(actor, msg, 30_000).toCompletableFuture().join();
+    }
+
+    /**
+     * The snapshot store saves a snapshot asynchronously, so a recovery right after the entity stopped could still load
+     *  the one before
+     */
+    private static void awaitSnapshot (UUID account, long sequenceNr) throws InterruptedException {
+        final var snapshotStore = Persistence.get(system).snapshotStoreFor("");
+        final var criteria = SnapshotSelectionCriteria.create(Long.MAX_VALUE, Long.MAX_VALUE);
+        for (int i=0; i<1000; i++) {
+            final var result = (SnapshotProtocol.LoadSnapshotResult) ask(snapshotStore, new SnapshotProtocol.LoadSnapshot(AccountEntity.persistenceId(account), criteria, Long.MAX_VALUE));
+            if (result.snapshot().isDefined() && result.snapshot().get().metadata().sequenceNr() >= sequenceNr)
+                return;
+            Thread.sleep(10);
+        }
+        fail("no snapshot at " + sequenceNr);
+    }
+
+    private static void stop (ActorRef actor) {
+        PatternsCS.gracefulStop(actor, FiniteDuration.apply(30, TimeUnit.SECONDS)).toCompletableFuture().join();
+    }
+
+    @Test public void replaysAtMostSnapshotEveryEvents () throws InterruptedException {
+        for (int numEvents: new int[] {1_000, 10_000, 100_000}) {
+            final var account = UUID.randomUUID();
+            var entity = start(account);
+            ask(entity, ImmutableCreateAccount.of(account));
+
+            final int numDeposits = numEvents + TAIL - 1;
+            for (int i=0; i<numDeposits; i+=BULK_SIZE) {
+                final var deposits = new ArrayList<AccountMessages.WithEntityId>();
+                for (int j=i; j<Math.min(numDeposits, i + BULK_SIZE); j++)
+                    deposits.add(ImmutableDeposit.of(Money.ofMinorUnits(1), Instant.now(), account));
+                ask(entity, ImmutableBulkCommand.of(deposits, account));
+            }
+            awaitSnapshot(account, (numEvents + TAIL) / snapshotEvery * snapshotEvery);
+            stop(entity);
+
+            final var metrics = Metrics.get(system);
+            final long replayedBefore = metrics.counter("account_recovery_events").count();
+            entity = start(account);
+            final var response = (AccountMessages.GetResponse) ask(entity, ImmutableGet.of(account));
+            final long replayed = metrics.counter("account_recovery_events").count() - replayedBefore;
+            stop(entity);
+
+            assertEquals(Money.ofMinorUnits(numDeposits), response.balance());
+            assertTrue(numEvents + " events: replayed " + replayed, replayed <= snapshotEvery);
+            assertEquals(numEvents + " events", (numEvents + TAIL) % snapshotEvery, replayed);
+        }
+    }
+
+    @Test public void snapshotsLessOftenWithManyIds () throws InterruptedException {
+        final var account = UUID.randomUUID();
+        var entity = start(account);
+        ask(entity, ImmutableCreateAccount.of(account));
+
+        // every received transfer adds an id, so after the first snapshot the ids grow as fast as the events
+        final int numTransfers = 3 * snapshotEvery;
+        for (int i=0; i<numTransfers; i++)
+            ask(entity, ImmutableReceivedTransfer.of(i, UUID.randomUUID(), Money.ofMinorUnits(1), UUID.randomUUID(), Instant.now(), account));
+        final var deposits = new ArrayList<AccountMessages.WithEntityId>();
+        for (int i=0; i<snapshotEvery - 100; i++)
+            deposits.add(ImmutableDeposit.of(Money.ofMinorUnits(1), Instant.now(), account));
+        ask(entity, ImmutableBulkCommand.of(deposits, account));
+        awaitSnapshot(account, snapshotEvery);
+        stop(entity);
+
+        final var metrics = Metrics.get(system);
+        final long replayedBefore = metrics.counter("account_recovery_events").count();
+        entity = start(account);
+        final var response = (AccountMessages.GetResponse) ask(entity, ImmutableGet.of(account));
+        final long replayed = metrics.counter("account_recovery_events").count() - replayedBefore;
+        stop(entity);
+
+        assertEquals(Money.ofMinorUnits(numTransfers + deposits.size()), response.balance());
+        assertTrue("replayed " + replayed, replayed > snapshotEvery && replayed <= numTransfers);
+    }
+}
@@ -0,0 +1,147 @@
+package de.arnohaase.corebanking.accounts;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import akka.dispatch.Futures;
+import akka.persistence.AtomicWrite;
+import akka.persistence.PersistentRepr;
+import akka.persistence.journal.japi.AsyncWriteJournal;
+import akka.serialization.SerializationExtension;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.collection.JavaConverters;
+import scala.concurrent.Future;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Events as the baseline wrote them, with the JavaSerializer and BigDecimal amounts, see baseline-java-events.conf
+ */
+public class LegacyJavaSerializerTest {
+    private static final UUID ACCOUNT = UUID.fromString("11111111-2222-3333-4444-555555555555");
+    private static final UUID OTHER = UUID.fromString("66666666-7777-8888-9999-aaaaaaaaaaaa");
+    private static final UUID TRANSFER = UUID.fromString("bbbbbbbb-cccc-dddd-eeee-ffffffffffff");
+    private static final UUID RECEIVED_TRANSFER = UUID.fromString("12345678-1234-1234-1234-123456789abc");
+    private static final Instant TIMESTAMP = Instant.parse("2017-11-01T10:15:30.123Z");
+
+    private static final Config EVENTS = ConfigFactory.parseResources("baseline-java-events.conf");
+    private static final int JAVA_SERIALIZER_ID = 1;
+
+    private static ActorSystem system;
+
+    @BeforeClass public static void setUp () {
+        system = ActorSystem.create("legacy", ConfigFactory.parseString(
+                "akka.remote.netty.tcp.port = 0\n" +
+                "akka.cluster.seed-nodes = []\n" +
+                "akka.persistence.journal.plugin = baseline-journal\n" +
+                "baseline-journal.class = \"" + BaselineJournal.class.getName() + "\"\n" +
+                "akka.persistence.snapshot-store.plugin = \"akka.persistence.snapshot-store.local\"\n" +
+                "akka.persistence.snapshot-store.local.dir = \"target/snapshots-" + UUID.randomUUID() + "\"\n")
+                .withFallback(ConfigFactory.load()));
+        Cluster.get(system).join(Cluster.get(system).selfAddress());
+    }
+
+    @AfterClass public static void tearDown () {
+        TestKit.shutdownActorSystem(system);
+    }
+
+    private static byte[] bytes (String event) {
+        return Base64.getDecoder().decode(EVENTS.getString(event));
+    }
+
+    private static Object deserialize (String event) {
+        return SerializationExtension.get(system).deserialize(bytes(event), JAVA_SERIALIZER_ID, "").get();
+    }
+
+    @Test public void readsBaselineEvents () {
+        assertEquals(ImmutableCreateAccount.of(ACCOUNT), deserialize("create-account"));
+        assertEquals(ImmutableDeposit.of(Money.parse("100.50"), TIMESTAMP, ACCOUNT), deserialize("deposit"));
+        assertEquals(ImmutableWithdraw.of(Money.parse("20.25"), TIMESTAMP, ACCOUNT), deserialize("withdraw"));
+        assertEquals(ImmutableTransferCommand.of(TRANSFER, true, Money.parse("10"), OTHER, TIMESTAMP, ACCOUNT), deserialize("transfer-command"));
+        assertEquals(ImmutableReceivedTransfer.of(3, RECEIVED_TRANSFER, Money.parse("7.77"), OTHER, TIMESTAMP, ACCOUNT), deserialize("received-transfer"));
+        assertEquals(ImmutableTransferAckForSender.of(1, TRANSFER, Money.parse("10"), false, TIMESTAMP, ACCOUNT), deserialize("transfer-ack"));
+        assertEquals(ImmutableTransferPing.of(TRANSFER, ACCOUNT), deserialize("transfer-ping"));
+        assertEquals(ImmutableTransferPingCancellation.of(TRANSFER), deserialize("transfer-ping-cancellation"));
+    }
+
+    @Test public void roundsAmountsFinerThanMinorUnits () {
+        // 0.125 was a valid baseline amount; it is rounded half-even
+        assertEquals(ImmutableDeposit.of(Money.parse("0.12"), TIMESTAMP, ACCOUNT), deserialize("deposit-sub-cent"));
+    }
+
+    @Test public void replaysBaselineJournal () {
+        BaselineJournal.EVENTS.put("account-" + ACCOUNT, List.of("create-account", "deposit", "deposit-sub-cent", "withdraw",
+                "transfer-command", "received-transfer", "transfer-ack"));
+
+        final var watchDog = new TestKit(system);
+        final var accounts = Accounts.start(system, watchDog.getRef());
+        final var probe = new TestKit(system);
+        probe.send(accounts, ImmutableGet.of(ACCOUNT));
+        final var response = probe.expectMsgClass(FiniteDuration.apply(20, TimeUnit.SECONDS), AccountMessages.GetResponse.class);
+
+        // 100.50 + 0.12 - 20.25 - 10 + 7.77, and the rejected transfer's 10 back
+        assertEquals(Money.parse("88.14"), response.balance());
+        assertEquals(7, response.sequenceNr());
+    }
+
+    /**
+     * replays the seeded events from their serialized form, the way a journal plugin reads them
+     */
+    public static class BaselineJournal extends AsyncWriteJournal {
+        static final Map<String, List<String>> EVENTS = new ConcurrentHashMap<>();
+
+        private final Map<String, List<PersistentRepr>> written = new ConcurrentHashMap<>();
+
+        @Override public Future<Iterable<Optional<Exception>>> doAsyncWriteMessages (Iterable<AtomicWrite> messages) {
+            final var results = new ArrayList<Optional<Exception>>();
+            for (AtomicWrite write: messages) {
+                for (PersistentRepr repr: JavaConverters.seqAsJavaList(write.payload()))
+                    written.computeIfAbsent(repr.persistenceId(), x -> new ArrayList<>()).add(repr);
+                results.add(Optional.empty());
+            }
+            return Futures.successful(results);
+        }
+
+        @Override public Future<Void> doAsyncDeleteMessagesTo (String persistenceId, long toSequenceNr) {
+            return Futures.successful(null);
+        }
+
+        @Override public Future<Void> doAsyncReplayMessages (String persistenceId, long fromSequenceNr, long toSequenceNr, long max,
+                                                            Consumer<PersistentRepr> replayCallback) {
+            final var seeded = EVENTS.getOrDefault(persistenceId, List.of());
+            long remaining = max;
+            for (long sequenceNr = fromSequenceNr; sequenceNr <= Math.min(toSequenceNr, seeded.size()) && remaining > 0; sequenceNr++, remaining--) {
+                final var payload = deserialize(seeded.get((int) sequenceNr - 1));
+                replayCallback.accept(PersistentRepr.apply(payload, sequenceNr, persistenceId, "", false, ActorRef.noSender(), ""));
+            }
+            for (PersistentRepr repr: written.getOrDefault(persistenceId, List.of())) {
+                if (repr.sequenceNr() >= fromSequenceNr && repr.sequenceNr() <= toSequenceNr && remaining-- > 0)
+                    replayCallback.accept(repr);
+            }
+            return Futures.successful(null);
+        }
+
+        @Override public Future<Long> doAsyncReadHighestSequenceNr (String persistenceId, long fromSequenceNr) {
+            final var written = this.written.getOrDefault(persistenceId, List.of());
+            return Futures.successful(written.isEmpty() ? EVENTS.getOrDefault(persistenceId, List.of()).size() : written.get(written.size() - 1).sequenceNr());
+        }
+    }
+}
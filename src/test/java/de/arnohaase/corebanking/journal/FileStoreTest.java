@@ -0,0 +1,250 @@
+package de.arnohaase.corebanking.journal;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Recovery of the segment files after a crash and after deletions, and concurrent writers and readers
+ */
+public class FileStoreTest {
+    private static final int SEGMENT_SIZE = 16 * 1024;
+    private static final int PAYLOAD_SIZE = 100;
+
+    private static Path newDir () {
+        return Paths.get("target", "file-store-" + UUID.randomUUID());
+    }
+
+    private static FileStore.Event event (String persistenceId, long sequenceNr) {
+        final var payload = new byte[PAYLOAD_SIZE];
+        final var text = (persistenceId + "-" + sequenceNr).getBytes(StandardCharsets.UTF_8);
+        for (int i=0; i<payload.length; i++)
+            payload[i] = text[i % text.length];
+        return new FileStore.Event(persistenceId, sequenceNr, Set.of("tag"), payload);
+    }
+
+    private static void write (FileStore store, String persistenceId, long fromSequenceNr, long toSequenceNr) {
+        for (long seqNr = fromSequenceNr; seqNr <= toSequenceNr; seqNr++)
+            store.write(List.of(event(persistenceId, seqNr))).toCompletableFuture().join();
+    }
+
+    private static List<Long> sequenceNrs (FileStore store, String persistenceId) {
+        return store.events(persistenceId, 1, Long.MAX_VALUE, Integer.MAX_VALUE).stream()
+                .map(e -> e.sequenceNr)
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> range (long from, long to) {
+        final var result = new ArrayList<Long>();
+        for (long i=from; i<=to; i++)
+            result.add(i);
+        return result;
+    }
+
+    private static List<Long> tagOffsets (FileStore store) {
+        return store.eventsByTag("tag", 0, Integer.MAX_VALUE).stream()
+                .map(e -> e.offset)
+                .collect(Collectors.toList());
+    }
+
+    private static long numSegments (Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test public void truncatesWriteInterruptedByCrash () throws IOException {
+        final var dir = newDir();
+        var store = new FileStore(dir, SEGMENT_SIZE);
+        write(store, "a", 1, 10);
+        store.close();
+
+        // a torn write of the last record: its last bytes never made it to disk
+        final Path segment;
+        try (var files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try (var raf = new RandomAccessFile(segment.toFile(), "rw")) {
+            long end = raf.length();
+            do {
+                raf.seek(--end);
+            }
+            while (raf.read() == 0);
+            raf.seek(end - PAYLOAD_SIZE / 2);
+            raf.write(new byte[PAYLOAD_SIZE / 2 + 1]);
+        }
+
+        store = new FileStore(dir, SEGMENT_SIZE);
+        assertEquals(9, store.highestSequenceNr("a"));
+        assertEquals(range(1, 9), sequenceNrs(store, "a"));
+        assertEquals(9, store.eventsByTag("tag", 0, 100).size());
+
+        // the truncated space is reused
+        write(store, "a", 10, 11);
+        store.close();
+
+        store = new FileStore(dir, SEGMENT_SIZE);
+        assertEquals(range(1, 11), sequenceNrs(store, "a"));
+        assertEquals(new String(event("a", 11).payload, StandardCharsets.UTF_8),
+                new String(store.events("a", 11, 11, 1).get(0).payload, StandardCharsets.UTF_8));
+        store.close();
+    }
+
+    @Test public void replaysAfterDeletion () throws IOException {
+        final var dir = newDir();
+        var store = new FileStore(dir, SEGMENT_SIZE);
+        write(store, "a", 1, 500);
+        write(store, "b", 1, 10);
+        final long segmentsBefore = numSegments(dir);
+        assertTrue(segmentsBefore > 3);
+
+        store.delete("a", 400).toCompletableFuture().join();
+        assertTrue(numSegments(dir) < segmentsBefore);
+        final var offsets = tagOffsets(store);
+        store.close();
+
+        store = new FileStore(dir, SEGMENT_SIZE);
+        assertEquals(500, store.highestSequenceNr("a"));
+        assertEquals(range(401, 500), sequenceNrs(store, "a"));
+        assertEquals(range(1, 10), sequenceNrs(store, "b"));
+
+        // offsets by tag are stable, and resuming from one returns the events after it
+        assertEquals(offsets, tagOffsets(store));
+        final var afterA = store.eventsByTag("tag", offsets.get(offsets.size() - 11), 100);
+        assertEquals(range(1, 10), afterA.stream().map(e -> e.event.sequenceNr).collect(Collectors.toList()));
+        assertEquals("b", afterA.get(0).event.persistenceId);
+
+        // all events deleted: the highest sequence number survives the removal of the segments holding the events
+        store.delete("a", 500).toCompletableFuture().join();
+        store.delete("b", 10).toCompletableFuture().join();
+        write(store, "c", 1, 200);
+        store.delete("c", 200).toCompletableFuture().join();
+        store.close();
+
+        store = new FileStore(dir, SEGMENT_SIZE);
+        assertEquals(500, store.highestSequenceNr("a"));
+        assertEquals(10, store.highestSequenceNr("b"));
+        assertEquals(200, store.highestSequenceNr("c"));
+        assertEquals(List.of(), sequenceNrs(store, "a"));
+        assertEquals(1, numSegments(dir));
+        // the current segment is kept, and queries by tag still return the deleted events in it
+        assertTrue(store.eventsByTag("tag", 0, 1000).stream().allMatch(e -> e.event.persistenceId.equals("c")));
+        store.close();
+    }
+
+    @Test public void queriesByTagFromPointInTime () throws InterruptedException {
+        final var store = new FileStore(newDir(), SEGMENT_SIZE);
+        write(store, "a", 1, 5);
+        final long from = (System.currentTimeMillis() / 1000 + 1) * 1000;
+        Thread.sleep(from - System.currentTimeMillis() + 1);
+        write(store, "a", 6, 10);
+
+        assertEquals(range(6, 10), store.eventsByTag("tag", store.offsetAt(from), 100).stream()
+                .map(e -> e.event.sequenceNr)
+                .collect(Collectors.toList()));
+        assertEquals(10, store.eventsByTag("tag", store.offsetAt(0), 100).size());
+        store.close();
+    }
+
+    @Test public void highWaterMarks () {
+        final var store = new FileStore(newDir(), SEGMENT_SIZE);
+        assertEquals(0, store.lastTagOffset("tag"));
+        write(store, "a", 1, 3);
+        write(store, "b", 1, 2);
+
+        final long lastTagOffset = store.lastTagOffset("tag");
+        assertEquals(tagOffsets(store).get(4).longValue(), lastTagOffset);
+        assertEquals(2, store.numPersistenceIds());
+
+        write(store, "c", 1, 2);
+        assertTrue(store.lastTagOffset("tag") > lastTagOffset);
+        assertEquals(3, store.numPersistenceIds());
+        store.close();
+    }
+
+    /**
+     * Every writer deletes its older events as it goes, so segments are removed while the readers read them
+     */
+    @Test public void concurrentWritersAndReaders () throws Exception {
+        final int numWriters = 8;
+        final int numEvents = 1000;
+
+        final var dir = newDir();
+        final var store = new FileStore(dir, SEGMENT_SIZE);
+        final ExecutorService executor = Executors.newFixedThreadPool(numWriters + 2);
+        final var isWriting = new AtomicBoolean(true);
+        try {
+            final var writers = new ArrayList<Future<?>>();
+            for (int w=0; w<numWriters; w++) {
+                final var persistenceId = "p" + w;
+                writers.add(executor.submit(() -> {
+                    for (long seqNr = 1; seqNr <= numEvents; seqNr++) {
+                        store.write(List.of(event(persistenceId, seqNr))).toCompletableFuture().join();
+                        if (seqNr % 100 == 0)
+                            store.delete(persistenceId, seqNr - 50).toCompletableFuture().join();
+                    }
+                }));
+            }
+
+            final var readers = new ArrayList<Future<?>>();
+            readers.add(executor.submit(() -> {
+                while (isWriting.get()) {
+                    for (int w=0; w<numWriters; w++) {
+                        final var events = store.events("p" + w, 1, Long.MAX_VALUE, Integer.MAX_VALUE);
+                        for (int i=1; i<events.size(); i++)
+                            assertEquals(events.get(i-1).sequenceNr + 1, events.get(i).sequenceNr);
+                    }
+                }
+            }));
+            readers.add(executor.submit(() -> {
+                while (isWriting.get()) {
+                    final var events = store.eventsByTag("tag", 0, Integer.MAX_VALUE);
+                    for (int i=1; i<events.size(); i++)
+                        assertTrue(events.get(i-1).offset < events.get(i).offset);
+                }
+            }));
+
+            for (Future<?> writer: writers)
+                writer.get(60, TimeUnit.SECONDS);
+            isWriting.set(false);
+            for (Future<?> reader: readers)
+                reader.get(60, TimeUnit.SECONDS);
+
+            for (int w=0; w<numWriters; w++) {
+                assertEquals(numEvents, store.highestSequenceNr("p" + w));
+                assertEquals(range(numEvents - 49, numEvents), sequenceNrs(store, "p" + w));
+            }
+            assertEquals(numWriters * 50, store.eventsByTag("tag", 0, Integer.MAX_VALUE).stream()
+                    .filter(e -> e.event.sequenceNr > numEvents - 50)
+                    .count());
+        }
+        finally {
+            executor.shutdownNow();
+            store.close();
+        }
+
+        final var reopened = new FileStore(dir, SEGMENT_SIZE);
+        for (int w=0; w<numWriters; w++)
+            assertEquals(range(numEvents - 49, numEvents), sequenceNrs(reopened, "p" + w));
+        reopened.close();
+    }
+}